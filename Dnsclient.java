@@ -1,3 +1,5 @@
+import java.io.IOException;
+
 import com.guillermobarreiro.clientedns.InterfazConsultas;
 
 /**
@@ -30,7 +32,13 @@ public class Dnsclient {
 		
 		boolean tcp = args[0].equals("-t");
 		
-		InterfazConsultas consultas = new InterfazConsultas(ip,tcp);
+		InterfazConsultas consultas = null;
+		try {
+			consultas = new InterfazConsultas(ip,tcp);
+		} catch (IOException e) {
+			System.out.println("No se pudo abrir el socket UDP. Se cancela la ejecución del programa.");
+			System.exit(1);
+		}
 		consultas.inicio();
 
 	}
@@ -0,0 +1,46 @@
+package es.uvigo.det.ro.simpledns.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Captured DNS responses bundled with the benchmarks, so every run decodes
+ * exactly the same bytes and no network access is needed.
+ *
+ * @author Guillermo Barreiro
+ */
+final class Corpus {
+
+    /**
+     * Names of the messages in the corpus, usable as the values of a JMH
+     * parameter
+     */
+    static final String ROOT_REFERRAL = "root-referral";
+    static final String TLD_REFERRAL = "tld-referral";
+    static final String CNAME_CHAIN = "cname-chain";
+    static final String LARGE_TXT = "large-txt";
+    static final String AAAA_HEAVY = "aaaa-heavy";
+    static final String NXDOMAIN_SOA = "nxdomain-soa";
+    static final String UNKNOWN_TYPES = "unknown-types";
+
+    private Corpus() {
+    }
+
+    /**
+     * Reads one of the messages of the corpus
+     *
+     * @param name The name of the message, without extension
+     * @return the message, as it was received from the network
+     */
+    static byte[] load(String name) {
+        try (InputStream in = Corpus.class.getResourceAsStream("/corpus/" + name + ".bin")) {
+            if (in == null) {
+                throw new IllegalArgumentException("No such message in the corpus: " + name);
+            }
+            return in.readAllBytes();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
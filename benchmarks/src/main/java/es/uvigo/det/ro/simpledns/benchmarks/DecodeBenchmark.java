@@ -0,0 +1,111 @@
+package es.uvigo.det.ro.simpledns.benchmarks;
+
+import es.uvigo.det.ro.simpledns.DomainNamePool;
+import es.uvigo.det.ro.simpledns.Message;
+import es.uvigo.det.ro.simpledns.MessageVisitor;
+import es.uvigo.det.ro.simpledns.RecordHandler;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decoding of every message of the corpus, with each of the strategies
+ * offered by the library: full decoding, lazy sections, decoding through a
+ * shared DomainNamePool and the allocation free visitor.
+ *
+ * @author Guillermo Barreiro
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+    @Param({Corpus.ROOT_REFERRAL, Corpus.TLD_REFERRAL, Corpus.CNAME_CHAIN, Corpus.LARGE_TXT,
+        Corpus.AAAA_HEAVY, Corpus.NXDOMAIN_SOA, Corpus.UNKNOWN_TYPES})
+    public String message;
+
+    private byte[] bytes;
+    private DomainNamePool pool;
+    private RecordHandler handler;
+
+    @Setup
+    public void setUp(Blackhole bh) {
+        bytes = Corpus.load(message);
+        pool = new DomainNamePool(1024);
+        handler = new ConsumingHandler(bh);
+    }
+
+    /**
+     * Decodes every record of the three sections
+     */
+    @Benchmark
+    public Message eager() throws Exception {
+        return new Message(bytes);
+    }
+
+    /**
+     * Decodes the sections lazily and then looks at every record, as a
+     * resolver following a referral would
+     */
+    @Benchmark
+    public void lazy(Blackhole bh) throws Exception {
+        Message decoded = new Message(bytes, true);
+        consume(decoded.getAnswers(), bh);
+        consume(decoded.getNameServers(), bh);
+        consume(decoded.getAdditonalRecords(), bh);
+    }
+
+    /**
+     * Decodes every record, interning the names in a pool shared by all the
+     * invocations
+     */
+    @Benchmark
+    public Message pooled() throws Exception {
+        return new Message(bytes, false, pool);
+    }
+
+    /**
+     * Walks the records without building any object
+     */
+    @Benchmark
+    public boolean visitor() throws Exception {
+        return MessageVisitor.visit(bytes, handler);
+    }
+
+    private static void consume(List<?> records, Blackhole bh) {
+        for (int i = 0; i < records.size(); i++) {
+            bh.consume(records.get(i));
+        }
+    }
+
+    private static final class ConsumingHandler implements RecordHandler {
+
+        private final Blackhole bh;
+
+        ConsumingHandler(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        public boolean record(MessageVisitor.Section section, byte[] message, int nameOffset, int type,
+                int rrclass, int ttl, int rdOffset, int rdLength) {
+            bh.consume(type);
+            bh.consume(rdOffset);
+            return true;
+        }
+    }
+}
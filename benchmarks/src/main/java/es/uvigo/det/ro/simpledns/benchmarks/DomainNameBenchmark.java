@@ -0,0 +1,78 @@
+package es.uvigo.det.ro.simpledns.benchmarks;
+
+import es.uvigo.det.ro.simpledns.DomainName;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing, hashing and comparison of domain names, the operations a resolver
+ * performs on every record while following referrals.
+ *
+ * @author Guillermo Barreiro
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class DomainNameBenchmark {
+
+    @Param({"com", "www.google.com", "e13678.dscb.akamaiedge.net"})
+    public String name;
+
+    private String text;
+    private DomainName parsed;
+    private DomainName same;
+    private DomainName other;
+    private DomainName zone;
+
+    @Setup
+    public void setUp() {
+        text = name.toUpperCase(); // So parsing has to lower-case it
+        parsed = new DomainName(name);
+        same = new DomainName(name.toUpperCase());
+        other = new DomainName("x" + name);
+        zone = new DomainName(name.substring(name.lastIndexOf('.') + 1));
+    }
+
+    @Benchmark
+    public DomainName parse() {
+        return new DomainName(text);
+    }
+
+    @Benchmark
+    public int hash() {
+        return parsed.hashCode();
+    }
+
+    @Benchmark
+    public boolean equalsSame() {
+        return parsed.equals(same);
+    }
+
+    @Benchmark
+    public boolean equalsOther() {
+        return parsed.equals(other);
+    }
+
+    @Benchmark
+    public boolean subdomain() {
+        return parsed.isSubdomainOf(zone);
+    }
+
+    @Benchmark
+    public String format() {
+        return new DomainName(text).toString();
+    }
+}
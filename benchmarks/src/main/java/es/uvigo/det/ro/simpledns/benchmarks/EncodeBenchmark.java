@@ -0,0 +1,77 @@
+package es.uvigo.det.ro.simpledns.benchmarks;
+
+import es.uvigo.det.ro.simpledns.Message;
+import es.uvigo.det.ro.simpledns.MessageEncoder;
+import es.uvigo.det.ro.simpledns.RRType;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding of the decoded corpus messages and of a fresh query, both through
+ * a reused MessageEncoder and through {@link Message#toByteArray()}.
+ *
+ * @author Guillermo Barreiro
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class EncodeBenchmark {
+
+    @Param({Corpus.ROOT_REFERRAL, Corpus.TLD_REFERRAL, Corpus.CNAME_CHAIN, Corpus.LARGE_TXT,
+        Corpus.AAAA_HEAVY, Corpus.NXDOMAIN_SOA, Corpus.UNKNOWN_TYPES})
+    public String message;
+
+    private Message decoded;
+    private Message query;
+    private MessageEncoder encoder;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setUp() throws Exception {
+        decoded = new Message(Corpus.load(message));
+        query = new Message("www.example.com", RRType.A, false);
+        query.setUDPPayloadSize(1232);
+        encoder = new MessageEncoder();
+        buffer = ByteBuffer.allocate(65535);
+    }
+
+    /**
+     * Re-encodes a decoded response into a reused buffer
+     */
+    @Benchmark
+    public int encoder() {
+        buffer.clear();
+        return encoder.encode(decoded, buffer);
+    }
+
+    /**
+     * Re-encodes a decoded response into a new array
+     */
+    @Benchmark
+    public byte[] toByteArray() throws Exception {
+        return decoded.toByteArray();
+    }
+
+    /**
+     * Encodes the query a resolver sends on every hop
+     */
+    @Benchmark
+    public int query() {
+        buffer.clear();
+        return encoder.encode(query, buffer);
+    }
+}
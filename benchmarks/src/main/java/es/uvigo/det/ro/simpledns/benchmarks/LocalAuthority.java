@@ -0,0 +1,119 @@
+package es.uvigo.det.ro.simpledns.benchmarks;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal authoritative server on a free UDP port that answers every query
+ * with one A record after a fixed delay, standing in for the network latency of a
+ * real server. Delayed answers are scheduled, so the server never holds a
+ * thread per pending query and many lookups can wait on it at once.
+ *
+ * @author Guillermo Barreiro
+ */
+final class LocalAuthority implements AutoCloseable {
+
+    private static final int TTL = 300;
+    private static final byte[] ADDRESS = {(byte) 192, 0, 2, 1};
+
+    private final DatagramChannel channel;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Thread receiver;
+    private final long delay;
+
+    /**
+     * Binds the server to a port chosen by the system, so it runs without
+     * root; the resolver must be told that port.
+     *
+     * @param address local address to bind, such as 127.0.0.1
+     * @param delay milliseconds to wait before answering each query
+     * @see #getPort()
+     */
+    LocalAuthority(InetAddress address, long delay) throws IOException {
+        this.delay = delay;
+        this.channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, 4 << 20);
+        channel.bind(new InetSocketAddress(address, 0));
+        this.receiver = new Thread(this::serve, "LocalAuthority");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * @return the UDP port the server is bound to
+     */
+    int getPort() throws IOException {
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    private void serve() {
+        ByteBuffer buffer = ByteBuffer.allocate(65535);
+        try {
+            while (true) {
+                buffer.clear();
+                SocketAddress client = channel.receive(buffer);
+                byte[] answer = answer(buffer.array(), buffer.position());
+                if (answer != null) {
+                    scheduler.schedule(() -> send(answer, client), delay, TimeUnit.MILLISECONDS);
+                }
+            }
+        } catch (ClosedChannelException e) {
+            // closed
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void send(byte[] answer, SocketAddress client) {
+        try {
+            channel.send(ByteBuffer.wrap(answer), client);
+        } catch (IOException e) {
+            // the client sees a timeout
+        }
+    }
+
+    /**
+     * Builds the answer: the header and question of the query, with QR and
+     * AA set, followed by an A record that points back to the question name.
+     */
+    private static byte[] answer(byte[] query, int length) {
+        int end = 12;
+        while (end < length && query[end] != 0) {
+            end += (query[end] & 0xff) + 1;
+        }
+        end += 5; // root label, type and class
+        if (length < 12 || end > length) {
+            return null;
+        }
+        byte[] answer = new byte[end + 16];
+        System.arraycopy(query, 0, answer, 0, end);
+        answer[2] = (byte) (0x84 | (query[2] & 0x01)); // QR, AA and the query's RD
+        answer[3] = 0;
+        answer[5] = 1; // QDCOUNT
+        answer[7] = 1; // ANCOUNT
+        answer[9] = answer[11] = answer[8] = answer[10] = 0;
+        ByteBuffer.wrap(answer, end, 16)
+                .putShort((short) 0xC00C)
+                .putShort((short) 1)
+                .putShort((short) 1)
+                .putInt(TTL)
+                .putShort((short) ADDRESS.length)
+                .put(ADDRESS);
+        return answer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        scheduler.shutdownNow();
+    }
+}
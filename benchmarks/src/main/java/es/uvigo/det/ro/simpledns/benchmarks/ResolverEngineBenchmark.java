@@ -0,0 +1,136 @@
+package es.uvigo.det.ro.simpledns.benchmarks;
+
+import com.guillermobarreiro.clientedns.MotorResolucion;
+import com.guillermobarreiro.clientedns.Resolver;
+import com.guillermobarreiro.clientedns.Resultado;
+import es.uvigo.det.ro.simpledns.RRType;
+import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link MotorResolucion} when a burst of lookups waits on a
+ * slow server, compared with running each lookup on its own platform thread.
+ * Every lookup is a single hop to a {@link LocalAuthority} that answers after
+ * {@code latency} milliseconds.
+ * <p>
+ * With {@code engine=async} the engine lets at most {@code limit} lookups be
+ * in flight and no thread waits on a lookup. With {@code engine=platform}
+ * each lookup blocks one thread of a pool of {@code limit} platform threads
+ * until {@link Resolver#resolver} completes, as the engine used to do.
+ * <p>
+ * The server listens on a port chosen by the system, so the benchmark runs
+ * unprivileged and offline.
+ *
+ * @author Guillermo Barreiro
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResolverEngineBenchmark {
+
+    @Param({"async", "platform"})
+    public String engine;
+
+    @Param({"1000"})
+    public int lookups;
+
+    @Param({"20"})
+    public int latency;
+
+    @Param({"200", "1000"})
+    public int limit;
+
+    @Param({"127.0.0.1"})
+    public String server;
+
+    private LocalAuthority authority;
+    private MotorResolucion motor;
+    private Resolver resolver;
+    private ExecutorService threads;
+
+    @Setup
+    public void setUp() throws Exception {
+        InetAddress address = InetAddress.getByName(server);
+        authority = new LocalAuthority(address, latency);
+        if (engine.equals("async")) {
+            motor = new MotorResolucion(address.getAddress(), false, limit);
+            resolver = motor.getResolver();
+        } else {
+            resolver = new Resolver(address.getAddress());
+            resolver.setTraza(false);
+            threads = Executors.newFixedThreadPool(limit, task -> {
+                Thread thread = new Thread(task);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        resolver.setPuerto(authority.getPort());
+        resolver.setCache(null); // Every iteration asks the same names
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (motor != null) {
+            motor.close();
+        } else {
+            threads.shutdownNow();
+        }
+        authority.close();
+    }
+
+    /**
+     * Starts every lookup and waits for all of them. A lookup that times out
+     * counts as unanswered instead of aborting the iteration.
+     */
+    @Benchmark
+    public int burst() throws Exception {
+        @SuppressWarnings("unchecked")
+        CompletableFuture<Resultado>[] results = new CompletableFuture[lookups];
+        for (int i = 0; i < lookups; i++) {
+            results[i] = lookup("www" + i + ".example.com");
+        }
+        int answered = 0;
+        for (CompletableFuture<Resultado> result : results) {
+            if (result.handle((r, error) -> error == null && r.hayRespuesta()).join()) {
+                answered++;
+            }
+        }
+        return answered;
+    }
+
+    private CompletableFuture<Resultado> lookup(String name) throws InterruptedException {
+        if (motor != null) {
+            return motor.resolver(name, RRType.A);
+        }
+        CompletableFuture<Resultado> result = new CompletableFuture<>();
+        threads.execute(() -> {
+            try {
+                result.complete(resolver.resolver(name, RRType.A).get());
+            } catch (ExecutionException e) {
+                result.completeExceptionally(e.getCause());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,63 @@
+package com.guillermobarreiro.clientedns;
+
+import java.util.Arrays;
+
+import es.uvigo.det.ro.simpledns.MessageVisitor;
+import es.uvigo.det.ro.simpledns.RRType;
+import es.uvigo.det.ro.simpledns.RecordHandler;
+
+/**
+ * Recoge de una respuesta, sin decodificarla, todos los NS de la sección authority y las IPv4 de esos NS en la
+ * sección additional.
+ * Solo se tienen en cuenta los NS de la zona del primero, que es la que se delega.
+ * Se puede reutilizar para varias respuestas llamando a {@link #reiniciar()} antes de cada una.
+ * @author Guillermo Barreiro
+ *
+ */
+final class BuscadorReferencia implements RecordHandler {
+	int[] nsOffsets = new int[16], nsTTLs = new int[16]; // posiciones de los nombres de los NS dentro de la respuesta
+	int[] ipOffsets = new int[16], ipTTLs = new int[16], ipNS = new int[16]; // posiciones de las IPv4 y NS al que pertenecen
+	int zonaOffset = -1; // posición del nombre de la zona delegada (el propietario de los NS), o -1 si no hay NS
+	int numNS, numIPs;
+	
+	void reiniciar() {
+		numNS = numIPs = 0;
+		zonaOffset = -1;
+	}
+
+	@Override
+	public boolean record(MessageVisitor.Section section, byte[] message, int nameOffset,
+			int type, int rrclass, int ttl, int rdOffset, int rdLength) {
+		if(section==MessageVisitor.Section.AUTHORITY && type==RRType.NS.getId()) {
+			if(zonaOffset<0) {
+				zonaOffset = nameOffset;
+			}else if(!MessageVisitor.sameName(message, nameOffset, zonaOffset)) {
+				return true; // NS de otra zona
+			}
+			if(numNS==nsOffsets.length) {
+				nsOffsets = Arrays.copyOf(nsOffsets, numNS*2);
+				nsTTLs = Arrays.copyOf(nsTTLs, numNS*2);
+			}
+			nsOffsets[numNS] = rdOffset;
+			nsTTLs[numNS++] = ttl;
+		}else if(section==MessageVisitor.Section.ADDITIONAL && type==RRType.A.getId() && rdLength==4) {
+			int ns = -1;
+			for(int i = 0; i<numNS && ns<0; i++) {
+				if(MessageVisitor.sameName(message, nameOffset, nsOffsets[i])) {
+					ns = i;
+				}
+			}
+			if(ns>=0) {
+				if(numIPs==ipOffsets.length) {
+					ipOffsets = Arrays.copyOf(ipOffsets, numIPs*2);
+					ipTTLs = Arrays.copyOf(ipTTLs, numIPs*2);
+					ipNS = Arrays.copyOf(ipNS, numIPs*2);
+				}
+				ipOffsets[numIPs] = rdOffset;
+				ipTTLs[numIPs] = ttl;
+				ipNS[numIPs++] = ns;
+			}
+		}
+		return true;
+	}
+}
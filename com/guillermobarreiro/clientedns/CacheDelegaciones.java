@@ -0,0 +1,201 @@
+package com.guillermobarreiro.clientedns;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import es.uvigo.det.ro.simpledns.DomainName;
+
+/**
+ * Caché de delegaciones (cortes de zona): para cada zona, los nombres de sus servidores (NS) y las IPv4 que se conocen
+ * de ellos, con sus TTL. Las delegaciones se aprenden de las referencias que se siguen durante las resoluciones, de
+ * modo que una resolución nueva empieza por los servidores de la zona más profunda que contiene al nombre, en lugar
+ * de por la raíz.
+ * La caché tiene un número máximo de zonas: al superarlo se descartan las menos usadas.
+ * @author Guillermo Barreiro
+ *
+ */
+public class CacheDelegaciones {
+
+	public static final int MAX_ZONAS = 10000; // número de zonas por defecto
+	private static final int TTL_MAXIMO = 2*24*60*60; // en segundos: como hacen los resolutores, no se confía más de dos días en una delegación
+
+	private static CacheDelegaciones compartida;
+
+	private final int maxZonas;
+	private final LinkedHashMap<DomainName, Entrada> zonas;
+
+	/**
+	 * Caché compartida por todos los resolutores que no indiquen una propia.
+	 */
+	public static synchronized CacheDelegaciones compartida() {
+		if(compartida==null) {
+			compartida = new CacheDelegaciones(MAX_ZONAS);
+		}
+		return compartida;
+	}
+
+	/**
+	 * Crea una caché vacía.
+	 * @param maxZonas Número máximo de zonas que se recuerdan
+	 */
+	public CacheDelegaciones(int maxZonas) {
+		if(maxZonas<1) {
+			throw new IllegalArgumentException("Tamaño no válido para la caché de delegaciones");
+		}
+		this.maxZonas = maxZonas;
+		this.zonas = new LinkedHashMap<DomainName, Entrada>(16, 0.75f, true) { // orden de acceso: LRU
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<DomainName, Entrada> mayor) {
+				return size()>CacheDelegaciones.this.maxZonas;
+			}
+		};
+	}
+
+	/**
+	 * Busca la zona más profunda que contiene al nombre y de la que se conoce la dirección de algún servidor.
+	 * @param nombre Nombre que se quiere resolver
+	 * @return La delegación, con las direcciones que no han caducado, o null si no se conoce ninguna (hay que
+	 * empezar por la raíz)
+	 */
+	public synchronized Delegacion buscar(DomainName nombre) {
+		long ahora = System.nanoTime();
+		for(DomainName zona = nombre; zona!=null; zona = zona.getParent()) {
+			Entrada entrada = zonas.get(zona);
+			if(entrada==null) {
+				continue;
+			}
+			if(ahora - entrada.caduca>=0) {
+				zonas.remove(zona); // caducada
+				continue;
+			}
+			List<byte[]> direcciones = new ArrayList<>(entrada.direcciones.size());
+			for(Direccion direccion: entrada.direcciones) {
+				if(ahora - direccion.caduca<0) {
+					direcciones.add(direccion.ip.clone());
+				}
+			}
+			if(!direcciones.isEmpty()) {
+				return new Delegacion(zona, entrada.servidores, direcciones);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Guarda la delegación de una zona, sustituyendo a la que hubiese.
+	 * @param zona Zona delegada
+	 * @param servidores Nombres de los servidores de la zona
+	 * @param ttl Menor TTL de los registros NS, en segundos
+	 */
+	public synchronized void guardar(DomainName zona, List<DomainName> servidores, int ttl) {
+		ttl = Math.min(ttl<0 ? 0 : ttl, TTL_MAXIMO); // RFC 2181, 8: con el bit más alto, se trata como 0
+		if(ttl<=0 || servidores.isEmpty()) {
+			return;
+		}
+		Entrada entrada = new Entrada(List.copyOf(servidores), System.nanoTime() + ttl*1_000_000_000L);
+		zonas.put(zona, entrada);
+	}
+
+	/**
+	 * Añade la dirección de uno de los servidores de una zona ya guardada (p. ej. la glue de la referencia).
+	 * @param zona Zona delegada
+	 * @param ip IPv4 del servidor, como un array de 4 bytes
+	 * @param ttl TTL del registro A, en segundos. La dirección no dura más que la delegación
+	 */
+	public synchronized void anadirDireccion(DomainName zona, byte[] ip, int ttl) {
+		Entrada entrada = zonas.get(zona);
+		ttl = Math.min(ttl<0 ? 0 : ttl, TTL_MAXIMO);
+		if(entrada==null || ttl<=0) {
+			return;
+		}
+		long caduca = Math.min(entrada.caduca, System.nanoTime() + ttl*1_000_000_000L);
+		for(Direccion direccion: entrada.direcciones) {
+			if(Arrays.equals(direccion.ip, ip)) {
+				direccion.caduca = caduca;
+				return;
+			}
+		}
+		entrada.direcciones.add(new Direccion(ip.clone(), caduca));
+	}
+
+	/**
+	 * Olvida la delegación de una zona, p. ej. porque ninguno de sus servidores responde.
+	 */
+	public synchronized void eliminar(DomainName zona) {
+		zonas.remove(zona);
+	}
+
+	/**
+	 * Vacía la caché.
+	 */
+	public synchronized void vaciar() {
+		zonas.clear();
+	}
+
+	/**
+	 * Número de zonas guardadas, incluidas las caducadas que aún no se han descartado.
+	 */
+	public synchronized int size() {
+		return zonas.size();
+	}
+
+	/**
+	 * Delegación encontrada en la caché.
+	 */
+	public static class Delegacion {
+		private final DomainName zona;
+		private final List<DomainName> servidores;
+		private final List<byte[]> direcciones;
+
+		Delegacion(DomainName zona, List<DomainName> servidores, List<byte[]> direcciones) {
+			this.zona = zona;
+			this.servidores = servidores;
+			this.direcciones = direcciones;
+		}
+
+		public DomainName getZona() {
+			return zona;
+		}
+
+		/**
+		 * Nombres de los servidores de la zona.
+		 */
+		public List<DomainName> getServidores() {
+			return servidores;
+		}
+
+		/**
+		 * IPv4 conocidas de los servidores, como arrays de 4 bytes, en el orden en que se aprendieron.
+		 */
+		public List<byte[]> getDirecciones() {
+			return direcciones;
+		}
+	}
+
+	private static class Entrada {
+		final List<DomainName> servidores;
+		final List<Direccion> direcciones = new ArrayList<>(4);
+		final long caduca; // System.nanoTime() en que deja de valer la delegación
+
+		Entrada(List<DomainName> servidores, long caduca) {
+			this.servidores = servidores;
+			this.caduca = caduca;
+		}
+	}
+
+	private static class Direccion {
+		final byte[] ip;
+		long caduca;
+
+		Direccion(byte[] ip, long caduca) {
+			this.ip = ip;
+			this.caduca = caduca;
+		}
+	}
+
+}
@@ -0,0 +1,152 @@
+package com.guillermobarreiro.clientedns;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import es.uvigo.det.ro.simpledns.DomainName;
+import es.uvigo.det.ro.simpledns.RRType;
+import es.uvigo.det.ro.simpledns.SOAResourceRecord;
+
+/**
+ * Caché de respuestas negativas (RFC 2308): nombres que no existen (NXDOMAIN), para cualquier tipo, y nombres que
+ * existen pero no tienen registros del tipo pedido (NODATA). Cada respuesta se recuerda durante el menor valor entre
+ * el TTL del SOA de la zona que la envió y su campo MINIMUM; sin SOA no se guarda.
+ * La caché tiene un número máximo de entradas: al superarlo se descartan las menos usadas.
+ * @author Guillermo Barreiro
+ *
+ */
+public class CacheNegativa {
+
+	public static final int RCODE_NXDOMAIN = 3;
+	public static final int MAX_ENTRADAS = 10000; // número de entradas por defecto
+	private static final int TTL_MAXIMO = 3*60*60; // en segundos: RFC 2308, 5, recomienda no pasar de una a tres horas
+	private static final int TODOS = -1; // tipo de las entradas NXDOMAIN, que valen para cualquier tipo
+
+	private static CacheNegativa compartida;
+
+	private final int maxEntradas;
+	private final LinkedHashMap<Clave, Entrada> entradas;
+
+	/**
+	 * Caché compartida por todos los resolutores que no indiquen una propia.
+	 */
+	public static synchronized CacheNegativa compartida() {
+		if(compartida==null) {
+			compartida = new CacheNegativa(MAX_ENTRADAS);
+		}
+		return compartida;
+	}
+
+	/**
+	 * Crea una caché vacía.
+	 * @param maxEntradas Número máximo de respuestas negativas que se recuerdan
+	 */
+	public CacheNegativa(int maxEntradas) {
+		if(maxEntradas<1) {
+			throw new IllegalArgumentException("Tamaño no válido para la caché negativa");
+		}
+		this.maxEntradas = maxEntradas;
+		this.entradas = new LinkedHashMap<Clave, Entrada>(16, 0.75f, true) { // orden de acceso: LRU
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Clave, Entrada> mayor) {
+				return size()>CacheNegativa.this.maxEntradas;
+			}
+		};
+	}
+
+	/**
+	 * Busca una respuesta negativa que no haya caducado.
+	 * @param nombre Nombre pedido
+	 * @param tipo Tipo pedido
+	 * @return {@link #RCODE_NXDOMAIN} si el nombre no existe, {@link Resultado#RCODE_NOERROR} si no tiene registros
+	 * del tipo, o -1 si no se sabe nada de él
+	 */
+	public synchronized int buscar(DomainName nombre, RRType tipo) {
+		long ahora = System.nanoTime();
+		Clave clave = new Clave(nombre, TODOS);
+		if(vigente(clave, ahora)) {
+			return RCODE_NXDOMAIN;
+		}
+		clave = new Clave(nombre, tipo.getId());
+		if(vigente(clave, ahora)) {
+			return Resultado.RCODE_NOERROR;
+		}
+		return -1;
+	}
+
+	/**
+	 * Guarda una respuesta negativa.
+	 * @param nombre Nombre pedido
+	 * @param tipo Tipo pedido
+	 * @param rcode {@link #RCODE_NXDOMAIN} o {@link Resultado#RCODE_NOERROR} (NODATA). Con otros códigos no se guarda
+	 * nada
+	 * @param soa SOA de la sección authority de la respuesta
+	 */
+	public synchronized void guardar(DomainName nombre, RRType tipo, int rcode, SOAResourceRecord soa) {
+		// RFC 2181, 8: un TTL con el bit más alto se trata como 0, y lo mismo el MINIMUM, que hace de TTL (RFC 2308, 5)
+		int ttl = Math.min(Math.min(Math.max(soa.getTTL(), 0), Math.max(soa.getMinimum(), 0)), TTL_MAXIMO);
+		if(ttl<=0 || (rcode!=RCODE_NXDOMAIN && rcode!=Resultado.RCODE_NOERROR)) {
+			return;
+		}
+		Clave clave = new Clave(nombre, rcode==RCODE_NXDOMAIN ? TODOS : tipo.getId());
+		entradas.put(clave, new Entrada(System.nanoTime() + ttl*1_000_000_000L));
+	}
+
+	/**
+	 * Vacía la caché.
+	 */
+	public synchronized void vaciar() {
+		entradas.clear();
+	}
+
+	/**
+	 * Número de respuestas guardadas, incluidas las caducadas que aún no se han descartado.
+	 */
+	public synchronized int size() {
+		return entradas.size();
+	}
+
+	private boolean vigente(Clave clave, long ahora) {
+		Entrada entrada = entradas.get(clave);
+		if(entrada!=null && ahora - entrada.caduca>=0) {
+			entradas.remove(clave); // caducada
+			return false;
+		}
+		return entrada!=null;
+	}
+
+	private static final class Clave {
+		final DomainName nombre;
+		final int tipo; // número del tipo, o TODOS
+
+		Clave(DomainName nombre, int tipo) {
+			this.nombre = nombre;
+			this.tipo = tipo;
+		}
+
+		@Override
+		public int hashCode() {
+			return nombre.hashCode()*31 + tipo;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Clave)) {
+				return false;
+			}
+			Clave otra = (Clave) obj;
+			return tipo==otra.tipo && nombre.equals(otra.nombre);
+		}
+	}
+
+	private static class Entrada {
+		final long caduca; // System.nanoTime() en que deja de valer
+
+		Entrada(long caduca) {
+			this.caduca = caduca;
+		}
+	}
+
+}
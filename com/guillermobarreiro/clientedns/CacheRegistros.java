@@ -0,0 +1,190 @@
+package com.guillermobarreiro.clientedns;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import es.uvigo.det.ro.simpledns.DomainName;
+import es.uvigo.det.ro.simpledns.RRClass;
+import es.uvigo.det.ro.simpledns.RRType;
+import es.uvigo.det.ro.simpledns.ResourceRecord;
+
+/**
+ * Caché de conjuntos de registros (RRsets) obtenidos en las respuestas, compartida por todas las resoluciones.
+ * Cada conjunto se guarda por nombre, tipo y clase durante el menor TTL de sus registros, y al consultarlo se
+ * devuelve con el TTL que le queda, de modo que una pregunta repetida se responde sin enviar nada a la red.
+ * Los registros se copian al guardarlos para no retener el mensaje del que se decodificaron. La caché tiene un
+ * tamaño máximo en bytes: al superarlo se descartan los conjuntos menos usados.
+ * @author Guillermo Barreiro
+ *
+ */
+public class CacheRegistros {
+
+	public static final long MAX_BYTES = 16*1024*1024L; // tamaño por defecto
+	private static final int TTL_MAXIMO = 7*24*60*60; // en segundos: RFC 8767, 4; un TTL mayor se recorta a una semana
+	private static final int BYTES_ENTRADA = 96; // lo que ocupan la clave, la entrada y la lista, aparte de los registros
+	private static final int BYTES_REGISTRO = 64; // objeto del registro y su array, aparte de los bytes codificados
+
+	private static CacheRegistros compartida;
+
+	private final long maxBytes;
+	private final LinkedHashMap<Pregunta, Entrada> entradas = new LinkedHashMap<>(16, 0.75f, true); // orden de acceso: LRU
+	private long bytes;
+	private long aciertos;
+	private long fallos;
+
+	/**
+	 * Caché compartida por todos los resolutores que no indiquen una propia, de 16 MiB.
+	 */
+	public static synchronized CacheRegistros compartida() {
+		if(compartida==null) {
+			compartida = new CacheRegistros(MAX_BYTES);
+		}
+		return compartida;
+	}
+
+	/**
+	 * Crea una caché vacía.
+	 * @param maxBytes Tamaño máximo aproximado de los registros guardados, en bytes
+	 */
+	public CacheRegistros(long maxBytes) {
+		if(maxBytes<1) {
+			throw new IllegalArgumentException("Tamaño no válido para la caché");
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Busca un conjunto de registros que no haya caducado.
+	 * @param nombre Nombre propietario
+	 * @param tipo Tipo de los registros
+	 * @param clase Clase de los registros
+	 * @return Copias de los registros con el TTL que les queda, en el orden en que llegaron, o null si no están en
+	 * la caché
+	 */
+	public List<ResourceRecord> buscar(DomainName nombre, RRType tipo, RRClass clase) {
+		Entrada entrada;
+		long ahora = System.nanoTime();
+		synchronized(this) {
+			Pregunta clave = new Pregunta(nombre, tipo, clase);
+			entrada = entradas.get(clave);
+			if(entrada!=null && ahora - entrada.caduca>=0) {
+				eliminar(clave, entrada); // caducado
+				entrada = null;
+			}
+			if(entrada==null) {
+				fallos++;
+				return null;
+			}
+			aciertos++;
+		}
+
+		// Las copias con el TTL restante se hacen fuera del cerrojo
+		int ttl = (int) Math.max(1, (entrada.caduca - ahora) / 1_000_000_000L);
+		List<ResourceRecord> registros = new ArrayList<>(entrada.registros.size());
+		for(ResourceRecord registro: entrada.registros) {
+			registros.add(registro.copy(ttl));
+		}
+		return registros;
+	}
+
+	/**
+	 * Guarda los registros de una respuesta, agrupados por nombre, tipo y clase. Cada grupo sustituye al que hubiese
+	 * guardado con la misma clave. No se guardan los grupos con TTL 0 ni los pseudorregistros como OPT.
+	 * @param registros Registros de la sección ANSWERS de una respuesta
+	 */
+	public void guardar(List<ResourceRecord> registros) {
+		// Agrupa y copia fuera del cerrojo
+		LinkedHashMap<Pregunta, Entrada> nuevas = new LinkedHashMap<>();
+		for(ResourceRecord registro: registros) {
+			if(registro.getRRType()==RRType.OPT || registro.getRRType()==RRType.UNKNOWN
+					|| registro.getRRClass()==RRClass.UNKNOWN) {
+				continue;
+			}
+			Pregunta clave = new Pregunta(registro.getDomain(), registro.getRRType(), registro.getRRClass());
+			Entrada entrada = nuevas.computeIfAbsent(clave, c -> new Entrada());
+			int ttl = registro.getTTL()<0 ? 0 : registro.getTTL(); // RFC 2181, 8: con el bit más alto, se trata como 0
+			entrada.ttl = Math.min(entrada.ttl, Math.min(ttl, TTL_MAXIMO));
+			ResourceRecord copia = registro.copy(registro.getTTL());
+			entrada.registros.add(copia);
+			entrada.bytes += BYTES_REGISTRO + copia.getEncodedLength();
+		}
+
+		long ahora = System.nanoTime();
+		synchronized(this) {
+			for(Map.Entry<Pregunta, Entrada> nueva: nuevas.entrySet()) {
+				Entrada entrada = nueva.getValue();
+				if(entrada.ttl<=0 || entrada.bytes>maxBytes) {
+					continue;
+				}
+				entrada.caduca = ahora + entrada.ttl*1_000_000_000L;
+				Entrada anterior = entradas.put(nueva.getKey(), entrada);
+				if(anterior!=null) {
+					bytes -= anterior.bytes;
+				}
+				bytes += entrada.bytes;
+			}
+
+			// Descarta los menos usados hasta volver al tamaño máximo
+			Iterator<Entrada> menosUsadas = entradas.values().iterator();
+			while(bytes>maxBytes && menosUsadas.hasNext()) {
+				bytes -= menosUsadas.next().bytes;
+				menosUsadas.remove();
+			}
+		}
+	}
+
+	/**
+	 * Vacía la caché.
+	 */
+	public synchronized void vaciar() {
+		entradas.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Número de conjuntos de registros guardados, incluidos los caducados que aún no se han descartado.
+	 */
+	public synchronized int size() {
+		return entradas.size();
+	}
+
+	/**
+	 * Tamaño aproximado de lo guardado, en bytes.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Búsquedas que encontraron un conjunto sin caducar.
+	 */
+	public synchronized long getAciertos() {
+		return aciertos;
+	}
+
+	/**
+	 * Búsquedas que no encontraron nada o lo encontraron caducado.
+	 */
+	public synchronized long getFallos() {
+		return fallos;
+	}
+
+	private void eliminar(Pregunta clave, Entrada entrada) {
+		entradas.remove(clave);
+		bytes -= entrada.bytes;
+	}
+
+	/**
+	 * Un conjunto de registros guardado, con sus TTL originales.
+	 */
+	private static class Entrada {
+		final List<ResourceRecord> registros = new ArrayList<>(1);
+		int ttl = Integer.MAX_VALUE; // el menor de los registros, en segundos
+		long caduca; // System.nanoTime() en que deja de valer
+		long bytes = BYTES_ENTRADA;
+	}
+
+}
@@ -1,82 +1,472 @@
 package com.guillermobarreiro.clientedns;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-
-import es.uvigo.det.ro.simpledns.Utils;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
- * Cliente capaz de establecer una conexión con un servidor TCP.
- * Realiza una solicitud al servidor y obtiene una respuesta.
+ * Cliente DNS sobre TCP con un conjunto de conexiones persistentes, una por servidor.
+ * Las conexiones se reutilizan entre consultas y admiten varias consultas a la vez: cada una lleva un ID distinto y
+ * las respuestas pueden llegar en cualquier orden (RFC 7766). Una conexión sin consultas en curso se cierra tras un
+ * tiempo de inactividad.
+ * Las conexiones se abren y las peticiones se escriben en un grupo limitado de hilos del cliente, de modo que quien
+ * envía una petición nunca espera a la red. Las escrituras no bloquean al hilo lector de la conexión, y si el servidor
+ * deja de leer y una escritura no termina a tiempo, se cierra la conexión.
  * @author Guillermo Barreiro
  *
  */
-public class ClienteTCP {
+public class ClienteTCP implements AutoCloseable {
+
+	private static final int TIME_OUT = 5*1000; // tiempo de espera de conexión, escritura y respuesta, en milisegundos
+	private static final int INACTIVIDAD = 10*1000; // tiempo máximo de una conexión sin consultas, en milisegundos
+	private static final int MAX_MENSAJE = 65535; // la longitud de un mensaje DNS sobre TCP ocupa 2 bytes
+	private static final int MAX_INTENTOS_ID = 64; // intentos para encontrar un ID libre en una conexión
+	private static final int MAX_HILOS_ENVIO = 32; // hilos que conectan y escriben las peticiones a la vez
+
+	private static ClienteTCP compartido;
 
-	InetAddress ipServidor;
-	int puerto;
-	Socket socket;
-	DataOutputStream out;
-	DataInputStream in;
+	private final Map<InetSocketAddress, Conexion> conexiones = new HashMap<>();
+	private final SecureRandom aleatorio = new SecureRandom();
+	private final int inactividad;
+	private final ThreadPoolExecutor envios;
+	private final ScheduledThreadPoolExecutor plazos; // cierra las conexiones en las que una escritura no termina
+	private boolean cerrado;
+
+	/**
+	 * Cliente compartido por todas las consultas que no indiquen uno propio.
+	 * @return El cliente compartido
+	 */
+	public static synchronized ClienteTCP compartido() {
+		if(compartido==null || compartido.estaCerrado()) {
+			compartido = new ClienteTCP(INACTIVIDAD);
+		}
+		return compartido;
+	}
+
+	/**
+	 * Crea un cliente TCP sin conexiones: se abren según se necesitan.
+	 * @param inactividad Tiempo, en milisegundos, tras el que se cierra una conexión sin consultas en curso
+	 */
+	public ClienteTCP(int inactividad) {
+		if(inactividad<=0) {
+			throw new IllegalArgumentException("Tiempo de inactividad no válido: " + inactividad);
+		}
+		this.inactividad = inactividad;
+		this.envios = new ThreadPoolExecutor(MAX_HILOS_ENVIO, MAX_HILOS_ENVIO, inactividad, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(), tarea -> {
+					Thread hilo = new Thread(tarea, "ClienteTCP envíos");
+					hilo.setDaemon(true);
+					return hilo;
+				});
+		this.envios.allowCoreThreadTimeOut(true); // sin peticiones no queda ningún hilo
+		this.plazos = new ScheduledThreadPoolExecutor(1, tarea -> {
+			Thread hilo = new Thread(tarea, "ClienteTCP plazos");
+			hilo.setDaemon(true);
+			return hilo;
+		});
+		this.plazos.setRemoveOnCancelPolicy(true); // casi todas las escrituras terminan y cancelan su plazo
+	}
 
 	/**
-	 * Establece una conexión vía TCP con un servidor.
+	 * Envía una petición al servidor vía TCP y espera su respuesta, reutilizando la conexión con el servidor si ya
+	 * existe.
 	 * @param ip Dirección IP del servidor
 	 * @param puerto Puerto del servidor
-	 * @throws IOException si se produjese algún error al intentar establecer la conexión
+	 * @param peticion Petición DNS completa. Su ID se sobrescribe con uno que no esté en uso en la conexión
+	 * @return La respuesta del servidor
+	 * @throws SocketTimeoutException si el servidor no responde a tiempo
+	 * @throws IOException si se produjese algún error en la conexión
 	 */
-	public ClienteTCP(byte[] ip, int puerto) throws IOException {
-		this.ipServidor = InetAddress.getByAddress(ip);
-		this.puerto = puerto;
-		this.socket = new Socket(ipServidor, puerto);
-		this.out = new DataOutputStream(socket.getOutputStream()); // stream de salida (cliente --> servidor)
-		this.in = new DataInputStream(socket.getInputStream()); // stream de entrada (servidor --> cliente)
+	public byte[] enviarPeticion(byte[] ip, int puerto, byte[] peticion) throws IOException {
+		CompletableFuture<byte[]> respuesta = enviar(ip, puerto, peticion);
+		try {
+			return respuesta.get(TIME_OUT, TimeUnit.MILLISECONDS);
+		}catch(TimeoutException e) {
+			respuesta.cancel(false); // libera su ID en la conexión
+			throw new SocketTimeoutException("El servidor DNS no ha respondido");
+		}catch(ExecutionException e) {
+			if(e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}catch(InterruptedException e) {
+			respuesta.cancel(false);
+			Thread.currentThread().interrupt();
+			throw new IOException("Consulta TCP interrumpida", e);
+		}
 	}
 
 	/**
-	 * Envía una petición al servidor vía TCP, devolviendo la respuesta de éste.
-	 * @return La respuesta del servidor
+	 * Envía una petición al servidor vía TCP sin esperar la respuesta ni la conexión: si no hay una abierta con el
+	 * servidor, se abre en un hilo del cliente.
+	 * Si la conexión reutilizada resulta estar cerrada por el servidor, antes o después de escribir la petición, se
+	 * abre una nueva y se reenvía una vez.
+	 * @param ip Dirección IP del servidor
+	 * @param puerto Puerto del servidor
+	 * @param peticion Petición DNS completa. Su ID se sobrescribe con uno que no esté en uso en la conexión
+	 * @return Futuro con la respuesta, que se completa en el hilo lector de la conexión. Termina con una IOException
+	 * si no se pudo conectar con el servidor o enviar la petición. Si se cancela, se libera el ID de la petición
 	 */
-	public byte[] enviarPeticion(byte[] peticion) throws IOException{
-		// Enviamos al servidor la petición
-		int longitudMensaje = peticion.length; // tamaño en bytes del mensaje DNS
-		
-		ByteArrayOutputStream outputBuffer = new ByteArrayOutputStream();
-		outputBuffer.write(Utils.int16toByteArray(longitudMensaje));
-		outputBuffer.write(peticion);
-		
-		// Enviamos la petición: longitud en bytes del mensaje (2 bytes) + mensaje DNS
-		out.write(outputBuffer.toByteArray()); // enviamos la petición
-
-		// Tiempo de espera...
-
-		// Obtenemos la respuesta del servidor
-		int longitudRespuesta = in.readShort();
-		byte[] respuesta = new byte[longitudRespuesta]; // Buffer de respuesta
-		in.readFully(respuesta);
+	public CompletableFuture<byte[]> enviar(byte[] ip, int puerto, byte[] peticion) {
+		if(peticion.length>MAX_MENSAJE) {
+			throw new IllegalArgumentException("La petición no cabe en un mensaje DNS: " + peticion.length);
+		}
+		int finPregunta = TransporteUDP.finPregunta(peticion);
+		if(finPregunta<0) {
+			throw new IllegalArgumentException("La petición no contiene una pregunta válida");
+		}
 
+		InetSocketAddress servidor;
+		try {
+			servidor = new InetSocketAddress(InetAddress.getByAddress(ip), puerto);
+		}catch(UnknownHostException e) {
+			return CompletableFuture.failedFuture(e); // la dirección no tiene 4 ni 16 bytes
+		}
+		CompletableFuture<byte[]> respuesta = new CompletableFuture<>();
+		intentar(servidor, peticion, finPregunta, false, respuesta);
 		return respuesta;
-			
+	}
 
+	/**
+	 * Escribe la petición en un hilo del cliente, abriendo la conexión si hace falta, y pasa su respuesta al futuro.
+	 * @param repetida true si ya se envió una vez por una conexión reutilizada que el servidor había cerrado
+	 */
+	private void intentar(InetSocketAddress servidor, byte[] peticion, int finPregunta, boolean repetida,
+			CompletableFuture<byte[]> respuesta) {
+		try {
+			envios.execute(() -> {
+				if(respuesta.isDone()) {
+					return; // cancelada mientras esperaba su turno
+				}
+				Pendiente pendiente = new Pendiente(peticion, finPregunta);
+				respuesta.whenComplete((r, e) -> pendiente.futuro.cancel(false)); // si se cancela, libera su ID
+				try {
+					escribir(servidor, pendiente);
+				}catch(IOException e) {
+					pendiente.futuro.completeExceptionally(e);
+				}
+				pendiente.futuro.whenComplete((datos, error) -> {
+					if(error==null) {
+						respuesta.complete(datos);
+						return;
+					}
+					Throwable causa = error instanceof CompletionException && error.getCause()!=null ? error.getCause() : error;
+					if(!repetida && causa instanceof ConexionCerrada && ((ConexionCerrada) causa).reutilizada) {
+						// La conexión estaba abierta de una consulta anterior: el servidor pudo cerrarla, se prueba otra
+						intentar(servidor, peticion, finPregunta, true, respuesta);
+					}else {
+						respuesta.completeExceptionally(causa);
+					}
+				});
+			});
+		}catch(RejectedExecutionException e) {
+			respuesta.completeExceptionally(new IOException("El cliente TCP está cerrado"));
+		}
 	}
-	
+
 	/**
-	 * Cierra el stream TCP con el servidor
+	 * Escribe la petición en la conexión con el servidor, que se abre si no la hay.
+	 * @throws ConexionCerrada si no se pudo escribir en una conexión ya abierta
+	 * @throws IOException si no se pudo conectar
 	 */
-	public void cerrarConexion() {
+	private void escribir(InetSocketAddress servidor, Pendiente pendiente) throws IOException {
+		Conexion conexion = obtenerConexion(servidor);
 		try {
-			this.out.close();
-			this.in.close();
-			this.socket.close();
+			conexion.enviar(pendiente);
 		}catch(IOException e) {
-			// Error al cerrar el flujo de datos
-			e.printStackTrace();
+			ConexionCerrada cerrada = new ConexionCerrada(e.getMessage(), conexion.reutilizada);
+			conexion.cerrar(cerrada);
+			throw cerrada;
+		}
+	}
+
+	/**
+	 * Cierra todas las conexiones y termina con una excepción las consultas que estuviesen en curso.
+	 */
+	@Override
+	public void close() {
+		Conexion[] abiertas;
+		synchronized(this) {
+			cerrado = true;
+			abiertas = conexiones.values().toArray(new Conexion[0]);
+			conexiones.clear();
+		}
+		envios.shutdown();
+		plazos.shutdownNow();
+		for(Conexion conexion: abiertas) {
+			conexion.cerrar(new IOException("El cliente TCP está cerrado"));
+		}
+	}
+
+	private synchronized boolean estaCerrado() {
+		return cerrado;
+	}
+
+	/**
+	 * Devuelve la conexión abierta con el servidor, o abre una nueva si no la hay.
+	 */
+	private Conexion obtenerConexion(InetSocketAddress servidor) throws IOException {
+		synchronized(this) {
+			if(cerrado) {
+				throw new IOException("El cliente TCP está cerrado");
+			}
+			Conexion conexion = conexiones.get(servidor);
+			if(conexion!=null && conexion.abierta()) {
+				conexion.reutilizada = true;
+				return conexion;
+			}
+		}
+
+		// Se conecta fuera del bloqueo, para no detener las consultas a otros servidores
+		Socket socket = new Socket();
+		try {
+			socket.setTcpNoDelay(true); // las peticiones son pequeñas y se envían enteras
+			socket.connect(servidor, TIME_OUT);
+			socket.setSoTimeout(inactividad);
+		}catch(IOException e) {
+			socket.close();
+			throw e;
+		}
+
+		Conexion nueva = new Conexion(servidor, socket);
+		Conexion anterior;
+		synchronized(this) {
+			anterior = cerrado ? null : conexiones.get(servidor);
+			if(cerrado || (anterior!=null && anterior.abierta())) {
+				nueva.cerrar(new ConexionCerrada("Conexión TCP duplicada", false)); // otro hilo abrió antes una conexión, o el cliente se ha cerrado
+			}else {
+				conexiones.put(servidor, nueva);
+				nueva.arrancar();
+				return nueva;
+			}
+		}
+		if(anterior==null) {
+			throw new IOException("El cliente TCP está cerrado");
+		}
+		anterior.reutilizada = true;
+		return anterior;
+	}
+
+	private synchronized void quitar(Conexion conexion) {
+		if(conexiones.get(conexion.servidor)==conexion) {
+			conexiones.remove(conexion.servidor);
+		}
+	}
+
+	/**
+	 * Conexión con un servidor. Las escrituras se serializan con su propio cerrojo y un hilo lector reparte las
+	 * respuestas entre las consultas en curso según su ID. El cerrojo de la conexión, que protege las consultas en
+	 * curso, nunca se mantiene mientras se espera a la red: si el servidor deja de leer porque tiene llenos sus
+	 * buffers de envío, el hilo lector tiene que poder seguir vaciándolos (RFC 7766, 6.2.1.1).
+	 */
+	private class Conexion {
+		final InetSocketAddress servidor;
+		final Socket socket;
+		final OutputStream out;
+		final DataInputStream in;
+		final Object escritura = new Object(); // serializa las escrituras en el socket
+		final Pendiente[] enCurso = new Pendiente[65536]; // consultas en curso, indexadas por su ID
+		int numEnCurso;
+		boolean cerrada; // no admite más consultas
+		boolean liberada; // socket cerrado y consultas terminadas
+		volatile boolean reutilizada;
+
+		Conexion(InetSocketAddress servidor, Socket socket) throws IOException {
+			this.servidor = servidor;
+			this.socket = socket;
+			this.out = new BufferedOutputStream(socket.getOutputStream());
+			this.in = new DataInputStream(socket.getInputStream());
+		}
+
+		void arrancar() {
+			Thread lector = new Thread(this::leer, "ClienteTCP " + servidor);
+			lector.setDaemon(true);
+			lector.start();
+		}
+
+		synchronized boolean abierta() {
+			return !cerrada;
+		}
+
+		/**
+		 * Asigna un ID libre a la consulta y la escribe en la conexión: longitud (2 bytes) + mensaje DNS. Si la
+		 * escritura no termina en {@value ClienteTCP#TIME_OUT} ms, se cierra la conexión.
+		 */
+		void enviar(Pendiente p) throws IOException {
+			int id = asignarId(p);
+			synchronized(escritura) {
+				ScheduledFuture<?> plazo;
+				try {
+					plazo = plazos.schedule(() -> cerrar(new ConexionCerrada("El servidor DNS no lee la conexión TCP", false)),
+							TIME_OUT, TimeUnit.MILLISECONDS);
+				}catch(RejectedExecutionException e) {
+					liberar(id, p);
+					throw new IOException("El cliente TCP está cerrado");
+				}
+				try {
+					out.write(p.peticion.length >> 8);
+					out.write(p.peticion.length);
+					out.write(p.peticion);
+					out.flush();
+				}catch(IOException e) {
+					liberar(id, p); // no se envió: la consulta se puede repetir en otra conexión
+					throw e;
+				}finally {
+					plazo.cancel(false);
+				}
+			}
+		}
+
+		/**
+		 * Anota la consulta como en curso con un ID libre, que escribe en la petición.
+		 */
+		private synchronized int asignarId(Pendiente p) throws IOException {
+			if(cerrada) {
+				throw new IOException("Conexión TCP cerrada");
+			}
+			int id = -1;
+			for(int intento = 0; intento<MAX_INTENTOS_ID && id<0; intento++) {
+				int candidato = aleatorio.nextInt(65536);
+				if(enCurso[candidato]==null) {
+					id = candidato;
+				}
+			}
+			if(id<0) {
+				throw new IOException("Demasiadas consultas TCP en curso con " + servidor);
+			}
+
+			p.peticion[0] = (byte) (id >> 8);
+			p.peticion[1] = (byte) id;
+			enCurso[id] = p;
+			numEnCurso++;
+			final int idAsignado = id;
+			p.futuro.whenComplete((r, e) -> liberar(idAsignado, p)); // también si se cancela
+			return id;
+		}
+
+		synchronized void liberar(int id, Pendiente p) {
+			if(enCurso[id]==p) {
+				enCurso[id] = null;
+				numEnCurso--;
+			}
+		}
+
+		/**
+		 * Bucle del hilo lector: recibe las respuestas y las entrega a su consulta.
+		 */
+		void leer() {
+			IOException error = null;
+			try {
+				while(true) {
+					int longitud;
+					try {
+						longitud = in.readUnsignedShort(); // sin signo: los mensajes pueden superar 32 KB
+					}catch(SocketTimeoutException e) {
+						synchronized(this) {
+							if(numEnCurso==0) {
+								cerrada = true; // conexión inactiva: deja de admitir consultas y se cierra
+								break;
+							}
+						}
+						continue; // hay consultas en curso, cada una vence con su propio tiempo de espera
+					}
+
+					byte[] respuesta = new byte[longitud];
+					in.readFully(respuesta);
+					if(longitud<12) {
+						continue; // no es un mensaje DNS
+					}
+
+					int id = ((respuesta[0] & 0xff) << 8) | (respuesta[1] & 0xff);
+					Pendiente p;
+					synchronized(this) {
+						p = enCurso[id];
+					}
+					if(p!=null && TransporteUDP.mismaPregunta(p.peticion, p.finPregunta, respuesta, longitud)) {
+						p.futuro.complete(respuesta);
+					}
+				}
+			}catch(EOFException e) {
+				error = new ConexionCerrada("El servidor DNS cerró la conexión TCP", reutilizada);
+			}catch(IOException e) {
+				error = e;
+			}
+			cerrar(error!=null ? error : new ConexionCerrada("Conexión TCP cerrada por inactividad", false));
+		}
+
+		/**
+		 * Cierra la conexión y termina con el error indicado las consultas en curso.
+		 */
+		void cerrar(IOException error) {
+			Pendiente[] pendientes;
+			synchronized(this) {
+				if(liberada) {
+					return;
+				}
+				cerrada = true;
+				liberada = true;
+				pendientes = enCurso.clone();
+			}
+			quitar(this);
+			try {
+				socket.close();
+			}catch(IOException e) {
+				// Se ignora: se está cerrando
+			}
+			for(Pendiente p: pendientes) {
+				if(p!=null) {
+					p.futuro.completeExceptionally(error);
+				}
+			}
+		}
+	}
+
+	/**
+	 * La conexión se cerró antes de recibir la respuesta. Si la conexión venía de una consulta anterior, la consulta
+	 * se puede repetir en una conexión nueva.
+	 */
+	private static class ConexionCerrada extends IOException {
+		private static final long serialVersionUID = 1L;
+		final boolean reutilizada;
+
+		ConexionCerrada(String mensaje, boolean reutilizada) {
+			super(mensaje);
+			this.reutilizada = reutilizada;
+		}
+	}
+
+	/**
+	 * Consulta enviada a la espera de su respuesta.
+	 */
+	private static class Pendiente {
+		final byte[] peticion;
+		final int finPregunta;
+		final CompletableFuture<byte[]> futuro = new CompletableFuture<>();
+
+		Pendiente(byte[] peticion, int finPregunta) {
+			this.peticion = peticion;
+			this.finPregunta = finPregunta;
 		}
-		
 	}
 
 }
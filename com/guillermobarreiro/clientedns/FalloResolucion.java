@@ -0,0 +1,45 @@
+package com.guillermobarreiro.clientedns;
+
+import java.io.IOException;
+import java.util.List;
+
+import es.uvigo.det.ro.simpledns.DomainName;
+import es.uvigo.det.ro.simpledns.RRType;
+
+/**
+ * Error de una resolución que no pudo terminar. La causa indica el motivo (p. ej. SocketTimeoutException si un
+ * servidor y todas sus alternativas dejaron de responder) y la traza, las preguntas enviadas hasta entonces.
+ * @author Guillermo Barreiro
+ *
+ */
+public class FalloResolucion extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final DomainName nombre;
+	private final RRType tipo;
+	private final List<Salto> saltos;
+
+	FalloResolucion(DomainName nombre, RRType tipo, List<Salto> saltos, Throwable causa) {
+		super("No se pudo resolver " + nombre + " " + tipo + ": " + causa.getMessage(), causa);
+		this.nombre = nombre;
+		this.tipo = tipo;
+		this.saltos = List.copyOf(saltos);
+	}
+
+	public DomainName getNombre() {
+		return nombre;
+	}
+
+	public RRType getTipo() {
+		return tipo;
+	}
+
+	/**
+	 * Preguntas enviadas antes del fallo, en el orden en que se enviaron. Vacía si la traza está desactivada.
+	 */
+	public List<Salto> getSaltos() {
+		return saltos;
+	}
+
+}
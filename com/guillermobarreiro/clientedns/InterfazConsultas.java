@@ -1,24 +1,27 @@
 package com.guillermobarreiro.clientedns;
 
-import java.net.SocketTimeoutException;
+import java.io.IOException;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+
+import es.uvigo.det.ro.simpledns.RRType;
 
 /**
  * Interfaz en línea de comandos para realizar consultas al servidor DNS.
- * Obtiene una entrada por teclado, realiza la consulta y devuelve el resultado.
+ * Obtiene una entrada por teclado, la resuelve con un {@link Resolver} y muestra la traza con {@link SalidaConsola}.
  * Una vez imprimido el resultado en pantalla, realiza otra consulta.
  * @author Guillermo Barreiro
  *
  */
 public class InterfazConsultas {
 	
-	private final byte[] ipServidor;
-	private boolean tcp;
+	private final Resolver resolver;
+	private final SalidaConsola salida = new SalidaConsola(System.out);
 	
-	public InterfazConsultas(byte[] ip, boolean tcp) {
-		this.ipServidor = ip;
-		this.tcp = tcp;
+	public InterfazConsultas(byte[] ip, boolean tcp) throws IOException {
+		this.resolver = new Resolver(ip);
+		this.resolver.setTCP(tcp);
 	}
 	
 	public void inicio() {
@@ -43,43 +46,28 @@ public class InterfazConsultas {
 				continue;
 			}
 			
-			// Crea un objeto de la clase Consulta, que modela una consulta DNS iterativa
-			Consulta consulta = null;
+			RRType tipo;
 			try {
-				consulta = new Consulta(ipServidor, camposPeticion[1],camposPeticion[0].toUpperCase(),tcp);
-			} catch (Exception e) {
+				tipo = RRType.valueOf(camposPeticion[0].toUpperCase()); // si se escogiese un tipo que no existe, se lanza una excepción
+				if(tipo==RRType.UNKNOWN || tipo==RRType.OPT) {
+					throw new IllegalArgumentException(); // no son tipos que se puedan preguntar
+				}
+			} catch (IllegalArgumentException e) {
 				// RRType incorrecto
 				System.out.println("RRType incorrecto. Petición DNS cancelada.");
+				continue funcionando;
 			}
 			
-			if(consulta==null) continue funcionando;
-			
-			boolean respuestaFinal = false; // determina si hay que seguir realizando consultas DNS o no
-			while(!respuestaFinal) {
-				// Muestra por pantalla la cuestión realizada al servidor DNS
-				consulta.mostrarCuestion();
-				try {
-					consulta.realizarConsulta(); // envía la consulta al servidor DNS y espera una respuesta
-				}catch (SocketTimeoutException e1) {
-					// Time out: han pasado 5 segundos sin recibir una respuesta
-					System.out.println("El servidor DNS no ha respondido. Se cancela la consulta.");
-					continue funcionando; // El usuario puede volver a realizar otra consulta
-				}catch (Exception e2) {
-					// Otro tipo de error
-					System.out.println("Error de conexión. Se cancela la consulta.");
-					continue funcionando;
-				}
-				
-				
-				
-				
-				// Hay respuesta?
-				respuestaFinal = consulta.mostrarRespuesta(); // si hubiese respuesta final (ANSWERS), se mostrará en pantalla y se terminará la consulta (rF = true)
-				
-				if(!respuestaFinal) {
-					// Tenemos que obtener el siguiente servidor de la jerarquía y realizar la consulta
-					respuestaFinal = !consulta.getSiguienteServidor(); // si no hubiese registro additionals para el siguiente servidor de la jerarquía, se termina aquí la consulta
+			try {
+				salida.mostrar(resolver.resolver(camposPeticion[1], tipo).get()); // pregunta a cada servidor de la jerarquía hasta obtener la respuesta final
+			}catch (ExecutionException e) {
+				if(e.getCause() instanceof FalloResolucion) {
+					salida.mostrar((FalloResolucion) e.getCause()); // lo que se preguntó y por qué se cancela
+				}else {
+					System.out.println("Nombre incorrecto. Petición DNS cancelada.");
 				}
+			}catch (InterruptedException e) {
+				break funcionando;
 			}
 		
 			
@@ -0,0 +1,110 @@
+package com.guillermobarreiro.clientedns;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import es.uvigo.det.ro.simpledns.RRType;
+
+/**
+ * Motor que resuelve muchos nombres a la vez sobre un {@link Resolver}, limitando cuántas consultas están en curso.
+ * Ninguna consulta ocupa un hilo mientras espera a la red: todas comparten el mismo {@link TransporteUDP} y
+ * {@link ClienteTCP} y sus respuestas se procesan en el ejecutor del resolutor, de modo que pueden estar en curso
+ * decenas de miles sin crear un hilo por consulta.
+ * El número de consultas en curso está limitado: al alcanzar el límite, quien pide una nueva espera a que termine otra.
+ * @author Guillermo Barreiro
+ *
+ */
+public class MotorResolucion implements AutoCloseable {
+
+	private static final int MAX_CONCURRENTES = 10000; // consultas en curso a la vez, por defecto
+	private static final long ESPERA_CIERRE = 10*1000L; // en milisegundos: tiempo que se deja terminar a las consultas al cerrar
+
+	private final Resolver resolver;
+	private final int maxConcurrentes;
+	private final Semaphore permisos;
+	private volatile boolean cerrado;
+
+	/**
+	 * Crea un motor con el límite de consultas por defecto (10000).
+	 * @param ipRaiz Dirección IP del servidor por el que empieza cada consulta, como un array de 4 bytes
+	 * @param tcp true para hacer las consultas por TCP
+	 * @throws IOException si no se puede abrir el transporte UDP compartido
+	 */
+	public MotorResolucion(byte[] ipRaiz, boolean tcp) throws IOException {
+		this(ipRaiz, tcp, MAX_CONCURRENTES);
+	}
+
+	/**
+	 * Crea un motor con un límite de consultas en curso.
+	 * @param ipRaiz Dirección IP del servidor por el que empieza cada consulta, como un array de 4 bytes
+	 * @param tcp true para hacer las consultas por TCP
+	 * @param maxConcurrentes Número máximo de consultas en curso a la vez
+	 * @throws IOException si no se puede abrir el transporte UDP compartido
+	 */
+	public MotorResolucion(byte[] ipRaiz, boolean tcp, int maxConcurrentes) throws IOException {
+		if(ipRaiz.length!=4 || maxConcurrentes<1) {
+			throw new IllegalArgumentException("Parámetros no válidos para el motor de resolución");
+		}
+		this.resolver = new Resolver(ipRaiz);
+		this.resolver.setTCP(tcp);
+		this.resolver.setTraza(false);
+		this.maxConcurrentes = maxConcurrentes;
+		this.permisos = new Semaphore(maxConcurrentes);
+	}
+
+	/**
+	 * Empieza a resolver un nombre. Si ya hay en curso el máximo de consultas, espera a que termine alguna.
+	 * @param nombre Nombre de dominio
+	 * @param tipo Tipo de registro que se pide
+	 * @return El resultado de la resolución, sin traza. Si falla, termina con una {@link FalloResolucion}
+	 * @throws InterruptedException si se interrumpe la espera por un hueco
+	 * @throws IllegalStateException si el motor está cerrado
+	 */
+	public CompletableFuture<Resultado> resolver(String nombre, RRType tipo) throws InterruptedException {
+		if(cerrado) {
+			throw new IllegalStateException("El motor de resolución está cerrado");
+		}
+		permisos.acquire();
+		CompletableFuture<Resultado> resultado;
+		try {
+			resultado = resolver.resolver(nombre, tipo);
+		}catch(RuntimeException e) {
+			permisos.release();
+			throw e;
+		}
+		return resultado.whenComplete((r, error) -> permisos.release());
+	}
+
+	/**
+	 * Resolutor del motor, para cambiar su configuración (p. ej. activar la traza).
+	 */
+	public Resolver getResolver() {
+		return resolver;
+	}
+
+	/**
+	 * Número de consultas que se pueden empezar sin esperar.
+	 */
+	public int getHuecosLibres() {
+		return permisos.availablePermits();
+	}
+
+	/**
+	 * Deja de aceptar consultas y espera a que terminen las que están en curso (cada una está limitada por los
+	 * tiempos de espera de sus servidores). Si no terminan en 10 segundos, deja de esperarlas: terminarán por su cuenta.
+	 */
+	@Override
+	public void close() {
+		cerrado = true;
+		try {
+			if(permisos.tryAcquire(maxConcurrentes, ESPERA_CIERRE, TimeUnit.MILLISECONDS)) {
+				permisos.release(maxConcurrentes);
+			}
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
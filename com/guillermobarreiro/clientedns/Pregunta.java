@@ -0,0 +1,14 @@
+package com.guillermobarreiro.clientedns;
+
+import es.uvigo.det.ro.simpledns.DomainName;
+import es.uvigo.det.ro.simpledns.RRClass;
+import es.uvigo.det.ro.simpledns.RRType;
+
+/**
+ * Nombre, tipo y clase de una pregunta: la clave de un conjunto de registros en {@link CacheRegistros} y de una
+ * resolución en {@link TablaEnCurso}. DomainName ya se compara sin distinguir mayúsculas.
+ * @author Guillermo Barreiro
+ *
+ */
+record Pregunta(DomainName nombre, RRType tipo, RRClass clase) {
+}
@@ -0,0 +1,119 @@
+package com.guillermobarreiro.clientedns;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Presupuesto y estadísticas de las consultas de respaldo.
+ * Cuando el servidor elegido tarda más de lo habitual en responder, se envía la misma pregunta al siguiente servidor
+ * de la delegación y se usa la primera respuesta que llegue. Para que esto no multiplique la carga sobre los
+ * servidores, solo se permite un respaldo por cada cierta fracción de las consultas enviadas (más una pequeña ráfaga
+ * inicial).
+ * @author Guillermo Barreiro
+ *
+ */
+public class PresupuestoRespaldo {
+
+	private static final double FRACCION = 0.1; // como mucho, un respaldo por cada 10 consultas
+	private static final int RAFAGA = 10; // respaldos permitidos antes de haber enviado consultas
+	private static final int FACTOR_VARIACION = 2; // retardo del respaldo: SRTT + 2·RTTVAR, cerca del percentil 95
+	private static final int RETARDO_MINIMO = 10; // en milisegundos: por debajo, el respaldo no compensa
+
+	private static PresupuestoRespaldo compartido;
+
+	private final double fraccion;
+	private final int rafaga;
+	private final AtomicLong consultas = new AtomicLong();
+	private final AtomicLong respaldos = new AtomicLong();
+	private final AtomicLong ganados = new AtomicLong();
+
+	/**
+	 * Presupuesto compartido por todas las consultas que no indiquen uno propio.
+	 */
+	public static synchronized PresupuestoRespaldo compartido() {
+		if(compartido==null) {
+			compartido = new PresupuestoRespaldo(FRACCION, RAFAGA);
+		}
+		return compartido;
+	}
+
+	/**
+	 * Crea un presupuesto.
+	 * @param fraccion Máximo de respaldos por consulta enviada, entre 0 (ningún respaldo) y 1
+	 * @param rafaga Respaldos que se permiten por encima de esa fracción
+	 */
+	public PresupuestoRespaldo(double fraccion, int rafaga) {
+		if(fraccion<0 || fraccion>1 || rafaga<0) {
+			throw new IllegalArgumentException("Presupuesto de respaldo no válido");
+		}
+		this.fraccion = fraccion;
+		this.rafaga = rafaga;
+	}
+
+	/**
+	 * Tiempo que se espera la respuesta del servidor antes de enviar un respaldo: lo que tarda normalmente en
+	 * responder más dos veces su variación.
+	 * @param tabla Tabla con los RTT medidos
+	 * @param servidor Servidor al que se ha enviado la consulta
+	 * @return El retardo en milisegundos
+	 */
+	public int getRetardo(TablaRTT tabla, InetAddress servidor) {
+		int srtt = tabla.getSRTT(servidor);
+		if(srtt<0) {
+			return SeleccionServidores.RTT_DESCONOCIDO;
+		}
+		return Math.max(RETARDO_MINIMO, srtt + FACTOR_VARIACION*tabla.getRTTVAR(servidor));
+	}
+
+	/**
+	 * Anota que se ha enviado una consulta, lo que amplía el presupuesto.
+	 */
+	public void registrarConsulta() {
+		consultas.incrementAndGet();
+	}
+
+	/**
+	 * Reserva un respaldo, si el presupuesto lo permite.
+	 * @return true si se puede enviar el respaldo, que queda contabilizado
+	 */
+	public boolean permitirRespaldo() {
+		while(true) {
+			long usados = respaldos.get();
+			if(usados>=rafaga + (long) (fraccion*consultas.get())) {
+				return false;
+			}
+			if(respaldos.compareAndSet(usados, usados + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Anota que la respuesta del respaldo llegó antes que la del servidor elegido.
+	 */
+	public void registrarGanado() {
+		ganados.incrementAndGet();
+	}
+
+	/**
+	 * Número de consultas enviadas al servidor elegido.
+	 */
+	public long getConsultas() {
+		return consultas.get();
+	}
+
+	/**
+	 * Número de respaldos enviados.
+	 */
+	public long getRespaldos() {
+		return respaldos.get();
+	}
+
+	/**
+	 * Número de respaldos cuya respuesta llegó antes que la del servidor elegido.
+	 */
+	public long getGanados() {
+		return ganados.get();
+	}
+
+}
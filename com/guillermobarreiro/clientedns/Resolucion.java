@@ -0,0 +1,726 @@
+package com.guillermobarreiro.clientedns;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import es.uvigo.det.ro.simpledns.AResourceRecord;
+import es.uvigo.det.ro.simpledns.CNAMEResourceRecord;
+import es.uvigo.det.ro.simpledns.DomainName;
+import es.uvigo.det.ro.simpledns.Message;
+import es.uvigo.det.ro.simpledns.Message.TruncatedMessageException;
+import es.uvigo.det.ro.simpledns.MessageVisitor;
+import es.uvigo.det.ro.simpledns.OPTResourceRecord;
+import es.uvigo.det.ro.simpledns.RRClass;
+import es.uvigo.det.ro.simpledns.RRType;
+import es.uvigo.det.ro.simpledns.ResourceRecord;
+import es.uvigo.det.ro.simpledns.SOAResourceRecord;
+
+/**
+ * Estado de la resolución iterativa de un nombre, para {@link Resolver}.
+ * Cada salto es una cadena de pasos asíncronos: se envía la pregunta, y cuando llega la respuesta (o vence su plazo)
+ * se decide en el ejecutor del resolutor si es la final, si hay que repetirla o si hay que preguntar a otro servidor.
+ * Las direcciones de los servidores sin glue y los nombres canónicos de los alias se obtienen con resoluciones
+ * auxiliares que comparten la misma traza. Las cadenas de alias (CNAME y DNAME) se siguen hasta {@value #MAX_CADENA}
+ * alias, dentro de las respuestas o con una resolución por eslabón, y fallan si vuelven a un nombre de la cadena.
+ * Antes de preguntar a nadie se busca el nombre en la caché del resolutor, donde se guardan después los registros de
+ * la respuesta final (o, si es negativa, en la caché negativa). Si no está en ninguna de las dos, se empieza por los
+ * servidores de la zona más profunda de la caché de delegaciones que contiene al nombre, que se completa con las
+ * referencias que se siguen por el camino.
+ * Cada resolución, auxiliar o no, es la de un {@link TablaEnCurso.Vuelo}: si otra necesita el mismo nombre mientras
+ * tanto, espera a su resultado.
+ * @author Guillermo Barreiro
+ *
+ */
+final class Resolucion {
+
+	private static final int RCODE_FORMERR = 1;
+	private static final int RCODE_SERVFAIL = 2;
+	private static final int RCODE_REFUSED = 5;
+	private static final int INTENTOS_UDP = 2; // envíos al mismo servidor antes de darlo por caído
+	private static final int MAX_ALTERNATIVAS = 4; // servidores de reserva que se prueban en un salto si el elegido no responde
+	private static final int MAX_NS_SIN_GLUE = 3; // NS sin glue cuya dirección se resuelve a la vez
+	private static final int MAX_SALTOS = 32; // preguntas por resolución: corta los bucles de delegaciones
+	private static final int MAX_PROFUNDIDAD = 8; // resoluciones auxiliares anidadas
+	private static final int MAX_CADENA = 12; // alias seguidos desde el nombre pedido
+	private static final long TIME_OUT_TCP = 5*1000L;
+	private static final DomainName RAIZ = new DomainName(".");
+
+	private final Resolver resolver;
+	private final DomainName nombre;
+	private final RRType tipo;
+	private final int profundidad;
+	private final List<Salto> traza; // sincronizada, compartida con las resoluciones auxiliares; null si no se guarda
+	private final long comienzo; // System.nanoTime() al empezar la resolución principal
+	private final TablaEnCurso.Vuelo vuelo; // entrada de esta resolución en la tabla de resoluciones en curso
+	private final List<DomainName> alias; // nombres de la cadena de alias que lleva hasta este, en orden; vacía si no es un nombre canónico
+	private final Message peticion;
+	private final ArrayDeque<byte[]> alternativas = new ArrayDeque<>(); // otros servidores de la delegación, por orden de preferencia
+	private final List<ResourceRecord> registros = new ArrayList<>();
+	private final boolean tcp; // todas las preguntas por TCP, y no solo las que llegan truncadas por UDP
+	private byte[] servidor; // servidor al que se pregunta en el salto actual
+	private DomainName zona = RAIZ; // zona de la que tiene autoridad ese servidor
+	private boolean desdeCache; // se empezó por una delegación de la caché y aún no ha respondido ninguno de sus servidores
+	private int saltos;
+
+	Resolucion(Resolver resolver, DomainName nombre, RRType tipo, int profundidad, List<Salto> traza, long comienzo,
+			TablaEnCurso.Vuelo vuelo, List<DomainName> alias) {
+		this.resolver = resolver;
+		this.vuelo = vuelo;
+		this.alias = List.copyOf(alias);
+		this.nombre = nombre;
+		this.tipo = tipo;
+		this.profundidad = profundidad;
+		this.traza = traza;
+		this.comienzo = comienzo;
+		this.tcp = resolver.isTCP();
+		this.peticion = new Message(nombre, tipo, false);
+		this.peticion.setUDPPayloadSize(OPTResourceRecord.DEFAULT_UDP_PAYLOAD_SIZE); // EDNS(0): evita truncar respuestas de hasta 1232 bytes
+	}
+
+	/**
+	 * Empieza la resolución como en {@link #iniciar(byte[])} y, al terminar, la saca de la tabla de resoluciones en
+	 * curso y completa el futuro de su vuelo, al que esperan quienes pidieron el mismo nombre.
+	 */
+	void volar(byte[] ip) {
+		CompletableFuture<Resultado> inicio;
+		try {
+			inicio = iniciar(ip);
+		}catch(RuntimeException e) {
+			// p. ej. el ejecutor rechaza la tarea: sin esto, quienes esperan al vuelo lo harían para siempre
+			inicio = CompletableFuture.failedFuture(e);
+		}
+		inicio.whenComplete((resultado, error) -> {
+			resolver.getEnCurso().terminar(vuelo);
+			if(error!=null) {
+				vuelo.futuro.completeExceptionally(causa(error));
+			}else {
+				vuelo.futuro.complete(resultado);
+			}
+		});
+	}
+
+	/**
+	 * Empieza la resolución preguntando al servidor indicado, salvo que la respuesta esté en la caché (o el nombre sea
+	 * un alias guardado en ella, y se sigue desde su destino) o se conozca la delegación de alguna zona que contenga
+	 * al nombre.
+	 */
+	CompletableFuture<Resultado> iniciar(byte[] ip) {
+		CacheRegistros cache = resolver.getCache();
+		List<ResourceRecord> guardados = cache==null ? null : cache.buscar(nombre, tipo, RRClass.IN);
+		if(guardados!=null) {
+			return desdeCache(guardados, Resultado.RCODE_NOERROR);
+		}
+		CacheNegativa negativa = resolver.getCacheNegativa();
+		int rcode = negativa==null ? -1 : negativa.buscar(nombre, tipo);
+		if(rcode>=0) {
+			return desdeCache(List.of(), rcode);
+		}
+		List<ResourceRecord> cname = cache==null || tipo==RRType.CNAME ? null : cache.buscar(nombre, RRType.CNAME, RRClass.IN);
+		if(cname!=null) {
+			if(traza!=null) {
+				traza.add(Salto.cache(nombre, tipo, cname, comienzo));
+			}
+			registros.addAll(cname);
+			List<DomainName> cadena = new ArrayList<>(alias);
+			cadena.add(nombre);
+			DomainName destino = ((CNAMEResourceRecord) cname.get(0)).getCNAME();
+			IOException error = eslabon(cadena, destino);
+			return error!=null ? CompletableFuture.failedFuture(error) : seguirAlias(cadena);
+		}
+
+		CacheDelegaciones delegaciones = resolver.getDelegaciones();
+		CacheDelegaciones.Delegacion corte = delegaciones==null ? null : delegaciones.buscar(nombre);
+		if(corte==null) {
+			this.servidor = ip;
+			return salto();
+		}
+		synchronized(this) {
+			zona = corte.getZona();
+			desdeCache = true;
+			empezarPor(corte.getDirecciones());
+		}
+		return salto().exceptionallyCompose(error -> {
+			synchronized(this) {
+				if(!desdeCache || !(causa(error) instanceof IOException)) {
+					return CompletableFuture.failedFuture(error);
+				}
+				// Ningún servidor de la delegación guardada responde: se olvida y se empieza por la raíz
+				delegaciones.eliminar(zona);
+				desdeCache = false;
+				zona = RAIZ;
+				servidor = ip;
+				alternativas.clear();
+			}
+			return salto();
+		});
+	}
+
+	private CompletableFuture<Resultado> desdeCache(List<ResourceRecord> guardados, int rcode) {
+		if(traza!=null) {
+			traza.add(Salto.cache(nombre, tipo, guardados, comienzo));
+		}
+		registros.addAll(guardados);
+		return CompletableFuture.completedFuture(resultado(rcode));
+	}
+
+	/**
+	 * Elige el servidor con menor RTT entre los indicados y deja los demás como alternativas.
+	 */
+	private void empezarPor(List<byte[]> direcciones) {
+		List<byte[]> orden = SeleccionServidores.ordenar(direcciones, resolver.getTransporte().getTablaRTT());
+		servidor = orden.get(0);
+		alternativas.clear();
+		for(int i = 1; i<orden.size() && alternativas.size()<MAX_ALTERNATIVAS; i++) {
+			alternativas.add(orden.get(i));
+		}
+	}
+
+	private CompletableFuture<Resultado> salto() {
+		if(++saltos>MAX_SALTOS) {
+			return CompletableFuture.failedFuture(new IOException("Demasiados saltos resolviendo " + nombre));
+		}
+		return preguntar(1, tcp).thenCompose(this::procesar);
+	}
+
+	/**
+	 * Envía la pregunta al servidor actual y espera una respuesta válida, reintentando, pasando a otros servidores de
+	 * la delegación o cambiando a TCP según haga falta.
+	 * @param intento Número de envío al mismo servidor, empezando en 1
+	 * @param porTCP true para enviarla por TCP. Tras una respuesta truncada solo se repite por TCP esa pregunta: las de
+	 * los saltos siguientes, a otros servidores, vuelven a ir por UDP
+	 * @return Futuro con el salto cuya respuesta se ha decodificado
+	 */
+	private CompletableFuture<Salto> preguntar(int intento, boolean porTCP) {
+		Salto salto = nuevoSalto(servidor, false, porTCP);
+		CompletableFuture<Salto> envio;
+		try {
+			envio = porTCP ? enviarTCP(salto) : enviarUDP(salto);
+		}catch(IOException e) {
+			salto.terminar(Salto.Estado.ERROR);
+			envio = CompletableFuture.failedFuture(e);
+		}
+		return envio.handleAsync((recibido, error) -> recibido(intento, porTCP, recibido, error), resolver.getEjecutor())
+				.thenCompose(Function.identity());
+	}
+
+	private CompletableFuture<Salto> recibido(int intento, boolean porTCP, Salto recibido, Throwable error) {
+		if(error!=null) {
+			Throwable causa = causa(error);
+			boolean timeout = causa instanceof SocketTimeoutException || causa instanceof TimeoutException;
+			if(!timeout && !(causa instanceof IOException)) {
+				return CompletableFuture.failedFuture(causa);
+			}
+			if(siguienteAlternativa()) {
+				return preguntar(1, porTCP); // otro servidor de la misma delegación
+			}
+			if(timeout && !porTCP && intento<INTENTOS_UDP) {
+				return preguntar(intento + 1, false); // la tabla de RTT ya ha duplicado el tiempo de espera del servidor
+			}
+			return CompletableFuture.failedFuture(timeout ? new SocketTimeoutException("El servidor DNS no ha respondido") : causa);
+		}
+
+		synchronized(this) {
+			servidor = recibido.getServidor(); // si respondió antes un respaldo, se sigue con ese servidor
+			desdeCache = false;
+		}
+		Message respuesta;
+		try {
+			respuesta = new Message(recibido.datos, true); // solo se decodifican los registros que se consulten
+		}catch(TruncatedMessageException e) {
+			// Mensaje truncado: se repite por TCP
+			recibido.terminar(Salto.Estado.TRUNCADA);
+			return preguntar(1, true);
+		}catch(Exception e) {
+			recibido.terminar(Salto.Estado.ERROR);
+			return CompletableFuture.failedFuture(e);
+		}
+		recibido.setRespuesta(respuesta);
+		if(respuesta.getRCODE()==RCODE_FORMERR && peticion.getUDPPayloadSize()>0) {
+			// El servidor no entiende EDNS(0): se repite la pregunta sin el registro OPT
+			recibido.terminar(Salto.Estado.REINTENTO);
+			peticion.setUDPPayloadSize(0);
+			return preguntar(intento, porTCP);
+		}
+		return CompletableFuture.completedFuture(recibido);
+	}
+
+	/**
+	 * Decide qué hacer con una respuesta: terminar, seguir la delegación o resolver antes la dirección de su servidor.
+	 */
+	private CompletableFuture<Resultado> procesar(Salto salto) {
+		Message respuesta = salto.getRespuesta();
+		if(!respuesta.getAnswers().isEmpty()) {
+			salto.terminar(Salto.Estado.RESPUESTA);
+			return respuestaFinal(respuesta);
+		}
+		if(respuesta.getRCODE()==CacheNegativa.RCODE_NXDOMAIN) {
+			salto.terminar(Salto.Estado.RESPUESTA); // el nombre no existe: no hay que seguir ninguna delegación
+			guardarNegativa(respuesta);
+			return CompletableFuture.completedFuture(resultado(respuesta.getRCODE()));
+		}
+		if((respuesta.getRCODE()==RCODE_SERVFAIL || respuesta.getRCODE()==RCODE_REFUSED) && siguienteAlternativa()) {
+			// El servidor no puede o no quiere responder (p. ej. no tiene cargada la zona): se prueba otro de la delegación
+			salto.terminar(Salto.Estado.RECHAZADA);
+			return salto();
+		}
+
+		BuscadorReferencia buscador = new BuscadorReferencia();
+		try {
+			MessageVisitor.visit(salto.datos, buscador);
+		}catch(Exception e) {
+			salto.terminar(Salto.Estado.ERROR);
+			return CompletableFuture.failedFuture(e);
+		}
+
+		// Solo es una referencia si delega una zona más profunda que contiene al nombre: los NS de la propia zona (que
+		// acompañan al SOA en algunas respuestas NODATA) o de una zona superior llevarían de vuelta al mismo sitio
+		DomainName delegada = aprenderDelegacion(salto, buscador);
+		if(delegada!=null && buscador.numIPs>0) {
+			// Hay IPv4 de los name servers en los additional records
+			elegirServidor(salto, buscador);
+			return salto();
+		}
+		if(delegada!=null) {
+			// Delegación sin glue: se resuelven aparte, a la vez, las direcciones de varios NS
+			salto.setDelegacion(new DomainName(salto.datos, buscador.nsOffsets[0]), buscador.nsTTLs[0], null, 0);
+			return primeraDireccion(salto, buscador, delegada).thenCompose(ip -> {
+				synchronized(this) {
+					servidor = ip;
+					alternativas.clear();
+				}
+				return salto();
+			});
+		}
+
+		salto.terminar(Salto.Estado.RESPUESTA); // ni respuesta ni delegación
+		if(!tieneSOA(respuesta)) {
+			return CompletableFuture.failedFuture(new IOException("El servidor no responde ni delega " + nombre
+					+ " a una zona inferior"));
+		}
+		guardarNegativa(respuesta); // NODATA
+		return CompletableFuture.completedFuture(resultado(respuesta.getRCODE()));
+	}
+
+	/**
+	 * true si la sección authority de la respuesta tiene el SOA de una zona que contiene al nombre.
+	 */
+	private boolean tieneSOA(Message respuesta) {
+		for(ResourceRecord registro: respuesta.getNameServers()) {
+			if(registro instanceof SOAResourceRecord && nombre.isSubdomainOf(registro.getDomain())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Termina con los registros de la respuesta y los guarda en la caché. Si el nombre es un alias y la respuesta no
+	 * incluye los registros del nombre canónico, se resuelve este aparte.
+	 */
+	private CompletableFuture<Resultado> respuestaFinal(Message respuesta) {
+		List<ResourceRecord> respuestas = respuesta.getAnswers();
+		registros.addAll(respuestas);
+
+		// Sigue los CNAME y DNAME de la respuesta hasta el nombre canónico
+		List<DomainName> cadena = new ArrayList<>(alias);
+		int propios = cadena.size(); // a partir de aquí, los nombres de esta respuesta
+		cadena.add(nombre);
+		DomainName canonico = nombre;
+		while(tipo!=RRType.CNAME && tipo!=RRType.DNAME) {
+			DomainName siguiente = Resultado.siguienteAlias(respuestas, canonico);
+			if(siguiente==null) {
+				break;
+			}
+			IOException error = eslabon(cadena, siguiente);
+			if(error!=null) {
+				return CompletableFuture.failedFuture(error);
+			}
+			canonico = siguiente;
+		}
+		guardar(respuestas, cadena.subList(propios, cadena.size()));
+		if(canonico.equals(nombre) || contiene(respuestas, canonico, tipo)) {
+			return CompletableFuture.completedFuture(resultado(respuesta.getRCODE()));
+		}
+		return seguirAlias(cadena);
+	}
+
+	/**
+	 * Añade a la cadena de alias el siguiente nombre, salvo que ya esté en ella o que la cadena sea demasiado larga.
+	 * @return El error por el que no se puede seguir la cadena, o null si se ha añadido
+	 */
+	private IOException eslabon(List<DomainName> cadena, DomainName siguiente) {
+		if(cadena.contains(siguiente)) {
+			return new IOException("Bucle de alias resolviendo " + nombre + ": " + siguiente + " ya está en la cadena");
+		}
+		if(cadena.size()>MAX_CADENA) {
+			return new IOException("Cadena de alias demasiado larga resolviendo " + nombre);
+		}
+		cadena.add(siguiente);
+		return null;
+	}
+
+	/**
+	 * Resuelve el último nombre de la cadena de alias, el canónico, y añade sus registros a los de esta resolución.
+	 * Los alias no cuentan como resoluciones anidadas: su número ya lo limita {@link #MAX_CADENA}.
+	 */
+	private CompletableFuture<Resultado> seguirAlias(List<DomainName> cadena) {
+		DomainName canonico = cadena.get(cadena.size() - 1);
+		return auxiliar(canonico, tipo, profundidad, cadena.subList(0, cadena.size() - 1)).thenApply(r -> {
+			registros.addAll(r.getRegistros());
+			return resultado(r.getRCODE());
+		});
+	}
+
+	/**
+	 * Guarda en la caché los registros de la respuesta que pertenecen a la pregunta o a los nombres a los que lleva
+	 * su cadena de alias. El resto no se guarda: el servidor no tiene por qué tener autoridad sobre ellos.
+	 */
+	private void guardar(List<ResourceRecord> respuestas, List<DomainName> cadena) {
+		CacheRegistros cache = resolver.getCache();
+		if(cache==null) {
+			return;
+		}
+		List<ResourceRecord> validos = new ArrayList<>(respuestas.size());
+		for(ResourceRecord registro: respuestas) {
+			if(cadena.contains(registro.getDomain())) {
+				validos.add(registro);
+			}
+		}
+		cache.guardar(validos);
+	}
+
+	/**
+	 * Guarda en la caché negativa una respuesta NXDOMAIN o NODATA, con el SOA de su sección authority. El SOA tiene
+	 * que ser de una zona que contenga al nombre y que esté dentro de la del servidor que lo envió.
+	 */
+	private void guardarNegativa(Message respuesta) {
+		CacheNegativa negativa = resolver.getCacheNegativa();
+		if(negativa==null) {
+			return;
+		}
+		DomainName zonaServidor;
+		synchronized(this) {
+			zonaServidor = zona;
+		}
+		for(ResourceRecord registro: respuesta.getNameServers()) {
+			if(registro instanceof SOAResourceRecord && nombre.isSubdomainOf(registro.getDomain())
+					&& registro.getDomain().isSubdomainOf(zonaServidor)) {
+				negativa.guardar(nombre, tipo, respuesta.getRCODE(), (SOAResourceRecord) registro);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Resuelve a la vez las IPv4 de los primeros NS de una delegación sin glue y se queda con la primera que se
+	 * obtenga, anotando en el salto el NS al que pertenece. Las demás resoluciones siguen su curso: todas las
+	 * direcciones que se obtienen se añaden a la delegación en la caché, para las siguientes resoluciones.
+	 * @param delegada Zona delegada, o null si no se aceptó la delegación y no hay que guardar nada
+	 * @return Futuro con la primera dirección, o con el error de la última resolución si ninguna da una dirección
+	 */
+	private CompletableFuture<byte[]> primeraDireccion(Salto salto, BuscadorReferencia buscador, DomainName delegada) {
+		CompletableFuture<byte[]> primera = new CompletableFuture<>();
+		int numNS = Math.min(buscador.numNS, MAX_NS_SIN_GLUE);
+		AtomicInteger pendientes = new AtomicInteger(numNS);
+		AtomicBoolean ganada = new AtomicBoolean();
+		for(int i = 0; i<numNS; i++) {
+			DomainName ns = new DomainName(salto.datos, buscador.nsOffsets[i]);
+			int ttlNS = buscador.nsTTLs[i];
+			auxiliar(ns, RRType.A).whenComplete((r, error) -> {
+				List<ResourceRecord> direcciones = error==null ? r.getRegistros(RRType.A) : List.of();
+				CacheDelegaciones delegaciones = resolver.getDelegaciones();
+				if(delegada!=null && delegaciones!=null) {
+					for(ResourceRecord registro: direcciones) {
+						delegaciones.anadirDireccion(delegada, ((AResourceRecord) registro).getAddress().getAddress(),
+								registro.getTTL());
+					}
+				}
+				if(!direcciones.isEmpty()) {
+					byte[] ip = ((AResourceRecord) direcciones.get(0)).getAddress().getAddress();
+					if(ganada.compareAndSet(false, true)) {
+						salto.setDelegacion(ns, ttlNS, null, 0);
+						primera.complete(ip);
+					}
+				}else if(pendientes.decrementAndGet()==0) {
+					primera.completeExceptionally(error!=null ? causa(error)
+							: new UnknownHostException("No se pudo resolver ningún NS de " + (delegada!=null ? delegada : nombre)));
+				}
+			});
+		}
+		return primera;
+	}
+
+	/**
+	 * Resuelve otro nombre desde la raíz o, si ya se está resolviendo, espera a esa resolución. Las preguntas de una
+	 * resolución a la que se espera solo aparecen en la traza de quien la empezó.
+	 */
+	private CompletableFuture<Resultado> auxiliar(DomainName otroNombre, RRType otroTipo) {
+		return auxiliar(otroNombre, otroTipo, profundidad + 1, List.of());
+	}
+
+	/**
+	 * Como {@link #auxiliar(DomainName, RRType)}, indicando cómo se ha llegado al otro nombre.
+	 * @param otraProfundidad Profundidad de la otra resolución, si hay que empezarla
+	 * @param cadena Cadena de alias que lleva hasta el otro nombre, si es un nombre canónico
+	 */
+	private CompletableFuture<Resultado> auxiliar(DomainName otroNombre, RRType otroTipo, int otraProfundidad,
+			List<DomainName> cadena) {
+		if(otraProfundidad>MAX_PROFUNDIDAD) {
+			return CompletableFuture.failedFuture(new IOException("Demasiadas resoluciones anidadas resolviendo " + nombre));
+		}
+		TablaEnCurso tabla = resolver.getEnCurso();
+		TablaEnCurso.Vuelo otro = tabla.unirse(otroNombre, otroTipo, vuelo);
+		if(otro==null) {
+			// Esa resolución espera, directa o indirectamente, a esta
+			return CompletableFuture.failedFuture(new IOException("Bucle de resoluciones: " + nombre + " depende de " + otroNombre
+					+ " y al revés"));
+		}
+		if(otro.lanzar()) {
+			otro.traza = traza;
+			new Resolucion(resolver, otroNombre, otroTipo, otraProfundidad, traza, comienzo, otro, cadena)
+					.volar(resolver.getRaiz());
+		}
+		return otro.futuro.whenComplete((r, e) -> tabla.dejarDeEsperar(vuelo, otro));
+	}
+
+	/**
+	 * Guarda en la caché de delegaciones la zona delegada por una referencia, sus NS y su glue. Solo se acepta una
+	 * zona que contenga al nombre y esté por debajo de la del servidor que envió la referencia: un servidor no puede
+	 * delegar lo que no es suyo.
+	 * @return La zona delegada, o null si no se acepta
+	 */
+	private synchronized DomainName aprenderDelegacion(Salto salto, BuscadorReferencia buscador) {
+		if(buscador.zonaOffset<0) {
+			return null;
+		}
+		DomainName delegada = new DomainName(salto.datos, buscador.zonaOffset);
+		if(delegada.equals(zona) || !delegada.isSubdomainOf(zona) || !nombre.isSubdomainOf(delegada)) {
+			return null;
+		}
+		zona = delegada;
+
+		CacheDelegaciones delegaciones = resolver.getDelegaciones();
+		if(delegaciones==null) {
+			return delegada;
+		}
+		List<DomainName> servidores = new ArrayList<>(buscador.numNS);
+		int ttl = Integer.MAX_VALUE;
+		for(int i = 0; i<buscador.numNS; i++) {
+			servidores.add(new DomainName(salto.datos, buscador.nsOffsets[i]));
+			ttl = Math.min(ttl, buscador.nsTTLs[i]);
+		}
+		delegaciones.guardar(delegada, servidores, ttl);
+		for(int i = 0; i<buscador.numIPs; i++) {
+			if(buscador.ipNS[i]>=0) {
+				int offset = buscador.ipOffsets[i];
+				delegaciones.anadirDireccion(delegada, Arrays.copyOfRange(salto.datos, offset, offset + 4), buscador.ipTTLs[i]);
+			}
+		}
+		return delegada;
+	}
+
+	/**
+	 * Elige, entre todas las IPv4 de la delegación, el servidor con menor RTT medido (o uno sin medir, de vez en
+	 * cuando). Los siguientes en el orden quedan como alternativas si no responde.
+	 */
+	private synchronized void elegirServidor(Salto salto, BuscadorReferencia buscador) {
+		byte[] datos = salto.datos;
+		List<byte[]> direcciones = new ArrayList<>(buscador.numIPs);
+		for(int i = 0; i<buscador.numIPs; i++) {
+			int offset = buscador.ipOffsets[i];
+			direcciones.add(Arrays.copyOfRange(datos, offset, offset + 4));
+		}
+		List<byte[]> orden = SeleccionServidores.ordenar(direcciones, resolver.getTransporte().getTablaRTT());
+
+		byte[] elegida = orden.get(0);
+		int indice = 0;
+		while(direcciones.get(indice)!=elegida) {
+			indice++;
+		}
+		int ns = buscador.ipNS[indice];
+		salto.setDelegacion(ns>=0 ? new DomainName(datos, buscador.nsOffsets[ns]) : null, ns>=0 ? buscador.nsTTLs[ns] : 0,
+				elegida, buscador.ipTTLs[indice]);
+		servidor = elegida;
+
+		alternativas.clear();
+		for(int i = 1; i<orden.size() && alternativas.size()<MAX_ALTERNATIVAS; i++) {
+			if(!Arrays.equals(orden.get(i), elegida) && !contiene(alternativas, orden.get(i))) {
+				alternativas.add(orden.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Pasa al siguiente servidor de la delegación, si quedan, cuando el actual no responde.
+	 * @return false si no quedan servidores alternativos
+	 */
+	private synchronized boolean siguienteAlternativa() {
+		byte[] siguiente = alternativas.poll();
+		if(siguiente==null) {
+			return false;
+		}
+		servidor = siguiente;
+		return true;
+	}
+
+	/**
+	 * Envía la pregunta al servidor actual por UDP. Si tarda más de lo habitual en responder y el presupuesto lo
+	 * permite, la envía también al siguiente servidor de la delegación y se queda con la primera respuesta.
+	 */
+	private CompletableFuture<Salto> enviarUDP(Salto salto) throws IOException {
+		PresupuestoRespaldo presupuesto = resolver.getPresupuesto();
+		CompletableFuture<Salto> principal = enviar(salto, resolver.getTransporte().enviar(servidor, resolver.getPuerto(), peticion.toByteArray()));
+		presupuesto.registrarConsulta();
+		synchronized(this) {
+			if(alternativas.isEmpty()) {
+				return principal;
+			}
+		}
+
+		// Gana la primera respuesta; si fallan todas, el error de la última
+		CompletableFuture<Salto> primera = new CompletableFuture<>();
+		AtomicInteger enCurso = new AtomicInteger(1);
+		BiConsumer<Salto, Throwable> carrera = (s, e) -> {
+			if(e==null) {
+				if(primera.complete(s) && s.isRespaldo()) {
+					presupuesto.registrarGanado();
+				}
+			}else if(enCurso.decrementAndGet()==0) {
+				primera.completeExceptionally(e);
+			}
+		};
+		principal.whenComplete(carrera);
+		primera.whenComplete((s, e) -> principal.cancel(false)); // la perdedora se cancela
+
+		int retardo = presupuesto.getRetardo(resolver.getTransporte().getTablaRTT(), InetAddress.getByAddress(servidor));
+		CompletableFuture.delayedExecutor(retardo, TimeUnit.MILLISECONDS, resolver.getEjecutor()).execute(() -> {
+			byte[] ipRespaldo;
+			synchronized(this) {
+				if(primera.isDone() || alternativas.isEmpty() || !presupuesto.permitirRespaldo()) {
+					return;
+				}
+				ipRespaldo = alternativas.poll();
+			}
+			for(int n = enCurso.get(); ; n = enCurso.get()) {
+				if(n==0) {
+					return; // la principal ya ha fallado
+				}
+				if(enCurso.compareAndSet(n, n + 1)) {
+					break;
+				}
+			}
+			Salto respaldo = nuevoSalto(ipRespaldo, true, false);
+			CompletableFuture<Salto> envio;
+			try {
+				envio = enviar(respaldo, resolver.getTransporte().enviar(ipRespaldo, resolver.getPuerto(), peticion.toByteArray()));
+			}catch(IOException e) {
+				respaldo.terminar(Salto.Estado.ERROR);
+				envio = CompletableFuture.failedFuture(e);
+			}
+			envio.whenComplete(carrera);
+			CompletableFuture<Salto> perdedora = envio;
+			primera.whenComplete((s, e) -> perdedora.cancel(false));
+		});
+		return primera;
+	}
+
+	private CompletableFuture<Salto> enviarTCP(Salto salto) throws IOException {
+		CompletableFuture<byte[]> envio = resolver.getClienteTCP().enviar(servidor, resolver.getPuerto(), peticion.toByteArray());
+		return enviar(salto, envio.orTimeout(TIME_OUT_TCP, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Anota en el salto el resultado del envío. Si se cancela el futuro devuelto, se cancela también el envío, que
+	 * libera su ID.
+	 */
+	private static CompletableFuture<Salto> enviar(Salto salto, CompletableFuture<byte[]> envio) {
+		CompletableFuture<Salto> resultado = new CompletableFuture<>();
+		envio.whenComplete((datos, error) -> {
+			if(error==null) {
+				resultado.complete(salto.recibir(datos));
+				return;
+			}
+			Throwable causa = causa(error);
+			if(causa instanceof CancellationException) {
+				salto.terminar(Salto.Estado.DESCARTADO);
+			}else if(causa instanceof SocketTimeoutException || causa instanceof TimeoutException) {
+				salto.terminar(Salto.Estado.SIN_RESPUESTA);
+			}else {
+				salto.terminar(Salto.Estado.ERROR);
+			}
+			resultado.completeExceptionally(causa);
+		});
+		resultado.whenComplete((s, e) -> {
+			if(resultado.isCancelled()) {
+				envio.cancel(false);
+				salto.terminar(Salto.Estado.DESCARTADO);
+			}
+		});
+		return resultado;
+	}
+
+	private Salto nuevoSalto(byte[] ip, boolean respaldo, boolean porTCP) {
+		Salto salto = new Salto(ip, porTCP, nombre, tipo, respaldo, comienzo);
+		if(traza!=null) {
+			traza.add(salto);
+		}
+		return salto;
+	}
+
+	private Resultado resultado(int rcode) {
+		return new Resultado(nombre, tipo, rcode, registros, copia(traza), (System.nanoTime() - comienzo) / 1_000_000L);
+	}
+
+	/**
+	 * Copia de la traza tal como está ahora, o una lista vacía si no se guarda.
+	 */
+	static List<Salto> copia(List<Salto> traza) {
+		if(traza==null) {
+			return List.of();
+		}
+		synchronized(traza) {
+			return new ArrayList<>(traza);
+		}
+	}
+
+	static Throwable causa(Throwable error) {
+		while(error instanceof CompletionException && error.getCause()!=null) {
+			error = error.getCause();
+		}
+		return error;
+	}
+
+	private static boolean contiene(List<ResourceRecord> registros, DomainName propietario, RRType tipo) {
+		for(ResourceRecord registro: registros) {
+			if(registro.getRRType()==tipo && registro.getDomain().equals(propietario)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean contiene(ArrayDeque<byte[]> direcciones, byte[] ip) {
+		for(byte[] d: direcciones) {
+			if(Arrays.equals(d, ip)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
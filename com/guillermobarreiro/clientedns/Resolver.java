@@ -0,0 +1,221 @@
+package com.guillermobarreiro.clientedns;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import es.uvigo.det.ro.simpledns.DomainName;
+import es.uvigo.det.ro.simpledns.RRType;
+
+/**
+ * Resolutor iterativo asíncrono. Cada resolución empieza en el servidor raíz indicado y sigue las delegaciones hasta
+ * obtener la respuesta final, sin bloquear ningún hilo mientras espera a la red: las preguntas van por el
+ * {@link TransporteUDP} (o el {@link ClienteTCP}) y cada respuesta se procesa en el ejecutor del resolutor, que
+ * decide el siguiente salto. Así se pueden lanzar muchas resoluciones a la vez desde un solo hilo.
+ * Las respuestas se guardan en una {@link CacheRegistros}, de modo que una pregunta repetida antes de que caduquen
+ * sus registros se responde sin salir a la red, y las delegaciones en una {@link CacheDelegaciones}, de modo que cada
+ * resolución empieza por los servidores de la zona conocida más cercana al nombre en lugar de por la raíz. Las
+ * respuestas negativas (el nombre no existe o no tiene registros del tipo) se recuerdan en una {@link CacheNegativa}.
+ * Si se pide un nombre que ya se está resolviendo, se espera a esa resolución en lugar de empezar otra.
+ * Es seguro usar el mismo resolutor desde varios hilos.
+ * @author Guillermo Barreiro
+ *
+ */
+public class Resolver {
+
+	private static final int PUERTO_DNS = 53;
+
+	private final byte[] ipRaiz;
+	private final TransporteUDP transporte;
+	private final ClienteTCP clienteTCP;
+	private final TablaEnCurso enCurso = new TablaEnCurso();
+	private volatile PresupuestoRespaldo presupuesto = PresupuestoRespaldo.compartido();
+	private volatile CacheRegistros cache = CacheRegistros.compartida();
+	private volatile CacheDelegaciones delegaciones = CacheDelegaciones.compartida();
+	private volatile CacheNegativa negativa = CacheNegativa.compartida();
+	private volatile Executor ejecutor = ForkJoinPool.commonPool();
+	private volatile int puerto = PUERTO_DNS;
+	private volatile boolean tcp;
+	private volatile boolean traza = true;
+
+	/**
+	 * Crea un resolutor que usa el transporte UDP y el cliente TCP compartidos.
+	 * @param ipRaiz Dirección IP del servidor por el que empieza cada resolución, como un array de 4 bytes
+	 * @throws IOException si no se puede abrir el transporte UDP compartido
+	 */
+	public Resolver(byte[] ipRaiz) throws IOException {
+		this(ipRaiz, TransporteUDP.compartido(), ClienteTCP.compartido());
+	}
+
+	/**
+	 * Crea un resolutor que envía sus preguntas por el transporte UDP y el cliente TCP indicados.
+	 * @param ipRaiz Dirección IP del servidor por el que empieza cada resolución, como un array de 4 bytes
+	 */
+	public Resolver(byte[] ipRaiz, TransporteUDP transporte, ClienteTCP clienteTCP) {
+		if(ipRaiz.length!=4) {
+			throw new IllegalArgumentException("Dirección IP no válida");
+		}
+		this.ipRaiz = ipRaiz.clone();
+		this.transporte = transporte;
+		this.clienteTCP = clienteTCP;
+	}
+
+	/**
+	 * Empieza a resolver un nombre.
+	 * @param nombre Nombre de dominio
+	 * @param tipo Tipo de registro que se pide
+	 * @return Futuro con el resultado, que se completa en el ejecutor del resolutor. Si no se puede resolver el
+	 * nombre, termina con una {@link FalloResolucion} cuya causa es una SocketTimeoutException si un servidor y
+	 * todas sus alternativas dejan de responder, o la excepción correspondiente si falla la conexión o una
+	 * respuesta está mal formada
+	 * @see #resolver(DomainName, RRType)
+	 */
+	public CompletableFuture<Resultado> resolver(String nombre, RRType tipo) {
+		DomainName dominio;
+		try {
+			dominio = new DomainName(nombre);
+		}catch(IllegalArgumentException e) {
+			return CompletableFuture.failedFuture(e); // etiqueta o nombre demasiado largo
+		}
+		return resolver(dominio, tipo);
+	}
+
+	/**
+	 * Empieza a resolver un nombre.
+	 * @param nombre Nombre de dominio
+	 * @param tipo Tipo de registro que se pide
+	 * @return Futuro con el resultado, que se completa en el ejecutor del resolutor o termina con una
+	 * {@link FalloResolucion}. Si el nombre ya se estaba resolviendo, es el resultado de esa resolución, con su traza
+	 */
+	public CompletableFuture<Resultado> resolver(DomainName nombre, RRType tipo) {
+		TablaEnCurso.Vuelo vuelo = enCurso.unirse(nombre, tipo, null);
+		if(vuelo.lanzar()) {
+			List<Salto> saltos = traza ? Collections.synchronizedList(new ArrayList<>()) : null;
+			vuelo.traza = saltos;
+			new Resolucion(this, nombre, tipo, 0, saltos, System.nanoTime(), vuelo, List.of()).volar(ipRaiz);
+		}
+		return vuelo.futuro.handle((resultado, error) -> {
+			if(error!=null) {
+				throw new CompletionException(new FalloResolucion(nombre, tipo, Resolucion.copia(vuelo.traza), Resolucion.causa(error)));
+			}
+			return resultado;
+		});
+	}
+
+	/**
+	 * Hace las preguntas por TCP desde el principio, en lugar de solo tras una respuesta UDP truncada.
+	 */
+	public void setTCP(boolean tcp) {
+		this.tcp = tcp;
+	}
+
+	/**
+	 * Cambia el puerto al que se envían las preguntas, el mismo para todos los servidores. Por defecto, el 53; otro
+	 * solo tiene sentido con servidores de prueba (p. ej. uno local que no puede abrir el 53 sin permisos).
+	 */
+	public void setPuerto(int puerto) {
+		if(puerto<1 || puerto>0xffff) {
+			throw new IllegalArgumentException("Puerto no válido: " + puerto);
+		}
+		this.puerto = puerto;
+	}
+
+	/**
+	 * Guarda o no la traza de las preguntas enviadas en cada resolución. Por defecto se guarda; sin ella, los
+	 * resultados ocupan menos y {@link Resultado#getSaltos()} queda vacía.
+	 */
+	public void setTraza(boolean traza) {
+		this.traza = traza;
+	}
+
+	/**
+	 * Cambia el presupuesto de preguntas de respaldo. Por defecto se usa {@link PresupuestoRespaldo#compartido()}.
+	 */
+	public void setPresupuestoRespaldo(PresupuestoRespaldo presupuesto) {
+		this.presupuesto = presupuesto;
+	}
+
+	/**
+	 * Cambia la caché de registros. Por defecto se usa {@link CacheRegistros#compartida()}.
+	 * @param cache La caché, o null para preguntar siempre a los servidores
+	 */
+	public void setCache(CacheRegistros cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Cambia la caché de delegaciones. Por defecto se usa {@link CacheDelegaciones#compartida()}.
+	 * @param delegaciones La caché, o null para empezar siempre por el servidor raíz
+	 */
+	public void setCacheDelegaciones(CacheDelegaciones delegaciones) {
+		this.delegaciones = delegaciones;
+	}
+
+	/**
+	 * Cambia la caché de respuestas negativas. Por defecto se usa {@link CacheNegativa#compartida()}.
+	 * @param negativa La caché, o null para no recordar las respuestas negativas
+	 */
+	public void setCacheNegativa(CacheNegativa negativa) {
+		this.negativa = negativa;
+	}
+
+	/**
+	 * Cambia el ejecutor en el que se procesan las respuestas y se completan los resultados. Por defecto,
+	 * {@link ForkJoinPool#commonPool()}. Las tareas son cortas, pero incluyen decodificar las respuestas y guardarlas
+	 * en las cachés: no sirve un ejecutor que las ejecute en el hilo que las lanza (p. ej. Runnable::run), porque ese
+	 * hilo es el del {@link TransporteUDP}, que mientras tanto deja de recibir las respuestas de las demás preguntas.
+	 */
+	public void setEjecutor(Executor ejecutor) {
+		this.ejecutor = ejecutor;
+	}
+
+	TablaEnCurso getEnCurso() {
+		return enCurso;
+	}
+
+	byte[] getRaiz() {
+		return ipRaiz;
+	}
+
+	int getPuerto() {
+		return puerto;
+	}
+
+	boolean isTCP() {
+		return tcp;
+	}
+
+	TransporteUDP getTransporte() {
+		return transporte;
+	}
+
+	ClienteTCP getClienteTCP() {
+		return clienteTCP;
+	}
+
+	PresupuestoRespaldo getPresupuesto() {
+		return presupuesto;
+	}
+
+	CacheRegistros getCache() {
+		return cache;
+	}
+
+	CacheDelegaciones getDelegaciones() {
+		return delegaciones;
+	}
+
+	CacheNegativa getCacheNegativa() {
+		return negativa;
+	}
+
+	Executor getEjecutor() {
+		return ejecutor;
+	}
+
+}
@@ -0,0 +1,129 @@
+package com.guillermobarreiro.clientedns;
+
+import java.util.List;
+
+import es.uvigo.det.ro.simpledns.CNAMEResourceRecord;
+import es.uvigo.det.ro.simpledns.DNAMEResourceRecord;
+import es.uvigo.det.ro.simpledns.DomainName;
+import es.uvigo.det.ro.simpledns.RRType;
+import es.uvigo.det.ro.simpledns.ResourceRecord;
+
+/**
+ * Resultado de resolver un nombre: los registros obtenidos, el código de respuesta del último servidor y la traza de
+ * las preguntas enviadas por el camino.
+ * @author Guillermo Barreiro
+ *
+ */
+public class Resultado {
+
+	public static final int RCODE_NOERROR = 0;
+
+	private final DomainName nombre;
+	private final RRType tipo;
+	private final int rcode;
+	private final List<ResourceRecord> registros;
+	private final List<Salto> saltos;
+	private final long duracion;
+
+	Resultado(DomainName nombre, RRType tipo, int rcode, List<ResourceRecord> registros, List<Salto> saltos,
+			long duracion) {
+		this.nombre = nombre;
+		this.tipo = tipo;
+		this.rcode = rcode;
+		this.registros = List.copyOf(registros);
+		this.saltos = List.copyOf(saltos);
+		this.duracion = duracion;
+	}
+
+	public DomainName getNombre() {
+		return nombre;
+	}
+
+	public RRType getTipo() {
+		return tipo;
+	}
+
+	/**
+	 * Código de respuesta (RCODE) de la respuesta final, incluidos los bits extendidos de EDNS(0).
+	 */
+	public int getRCODE() {
+		return rcode;
+	}
+
+	/**
+	 * Registros de la sección ANSWERS de la respuesta final, en orden. Si el nombre es un alias, incluye toda la
+	 * cadena de CNAME y DNAME y los registros del nombre canónico, aunque se obtuviesen en otras resoluciones o de la
+	 * caché.
+	 */
+	public List<ResourceRecord> getRegistros() {
+		return registros;
+	}
+
+	/**
+	 * Registros del tipo pedido, sin los CNAME que llevan hasta ellos.
+	 */
+	public List<ResourceRecord> getRegistros(RRType tipo) {
+		return registros.stream().filter(r -> r.getRRType()==tipo).toList();
+	}
+
+	/**
+	 * Nombre al que lleva la cadena de alias de los registros, o el nombre pedido si no es un alias.
+	 */
+	public DomainName getNombreCanonico() {
+		DomainName canonico = nombre;
+		for(int i = 0; i<registros.size(); i++) { // una cadena no puede tener más alias que registros
+			DomainName siguiente = siguienteAlias(registros, canonico);
+			if(siguiente==null) {
+				break;
+			}
+			canonico = siguiente;
+		}
+		return canonico;
+	}
+
+	/**
+	 * true si la respuesta final contiene algún registro.
+	 */
+	public boolean hayRespuesta() {
+		return !registros.isEmpty();
+	}
+
+	/**
+	 * Preguntas enviadas durante la resolución, en el orden en que se enviaron, incluidas las de las resoluciones
+	 * auxiliares (direcciones de servidores sin glue y nombres canónicos).
+	 */
+	public List<Salto> getSaltos() {
+		return saltos;
+	}
+
+	/**
+	 * Tiempo total de la resolución, en milisegundos.
+	 */
+	public long getDuracion() {
+		return duracion;
+	}
+
+	/**
+	 * Nombre al que redirige a otro un CNAME suyo o, si no tiene, un DNAME de alguno de sus ancestros.
+	 * @return El destino, o null si los registros no contienen ningún alias del nombre
+	 */
+	static DomainName siguienteAlias(List<ResourceRecord> registros, DomainName nombre) {
+		for(ResourceRecord registro: registros) {
+			if(registro instanceof CNAMEResourceRecord && registro.getDomain().equals(nombre)) {
+				return ((CNAMEResourceRecord) registro).getCNAME();
+			}
+		}
+		for(ResourceRecord registro: registros) {
+			if(registro instanceof DNAMEResourceRecord && !registro.getDomain().equals(nombre)
+					&& nombre.isSubdomainOf(registro.getDomain())) {
+				try {
+					return ((DNAMEResourceRecord) registro).sustituir(nombre);
+				}catch(IllegalArgumentException e) {
+					return null; // el nombre sustituido sería demasiado largo (YXDOMAIN)
+				}
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,252 @@
+package com.guillermobarreiro.clientedns;
+
+import java.io.PrintStream;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import es.uvigo.det.ro.simpledns.AAAAResourceRecord;
+import es.uvigo.det.ro.simpledns.AResourceRecord;
+import es.uvigo.det.ro.simpledns.CNAMEResourceRecord;
+import es.uvigo.det.ro.simpledns.DNAMEResourceRecord;
+import es.uvigo.det.ro.simpledns.MXResourceRecord;
+import es.uvigo.det.ro.simpledns.NSResourceRecord;
+import es.uvigo.det.ro.simpledns.PTRResourceRecord;
+import es.uvigo.det.ro.simpledns.RRType;
+import es.uvigo.det.ro.simpledns.ResourceRecord;
+import es.uvigo.det.ro.simpledns.SOAResourceRecord;
+import es.uvigo.det.ro.simpledns.SRVResourceRecord;
+import es.uvigo.det.ro.simpledns.TXTResourceRecord;
+
+/**
+ * Muestra la traza de una resolución con el formato del cliente: una línea "Q" por cada pregunta enviada y una
+ * línea "A" por cada registro obtenido de ella (las respuestas finales y el NS y la IPv4 de cada delegación).
+ * Los registros tomados de la caché se muestran como respuestas del servidor "caché", sin línea "Q".
+ * Puede escribir en el hilo que la llama o en un hilo propio, para que el resolutor no espere a la consola.
+ * @author Guillermo Barreiro
+ *
+ */
+public class SalidaConsola implements AutoCloseable {
+
+	private final PrintStream salida;
+	private final ExecutorService hilo; // null si se escribe en el hilo que llama
+
+	/**
+	 * Crea una salida que escribe en el hilo que la llama.
+	 * @param salida Flujo en el que se escribe
+	 */
+	public SalidaConsola(PrintStream salida) {
+		this(salida, false);
+	}
+
+	/**
+	 * Crea una salida.
+	 * @param salida Flujo en el que se escribe
+	 * @param asincrona true para escribir en un hilo propio, en el mismo orden en que se piden las trazas
+	 */
+	public SalidaConsola(PrintStream salida, boolean asincrona) {
+		this.salida = salida;
+		this.hilo = !asincrona ? null : Executors.newSingleThreadExecutor(tarea -> {
+			Thread hilo = new Thread(tarea, "SalidaConsola");
+			hilo.setDaemon(true);
+			return hilo;
+		});
+	}
+
+	/**
+	 * Muestra las preguntas y respuestas de una resolución terminada.
+	 * @return Futuro que se completa cuando se ha escrito todo
+	 */
+	public CompletableFuture<Void> mostrar(Resultado resultado) {
+		return escribir(() -> mostrarSaltos(resultado.getSaltos()));
+	}
+
+	/**
+	 * Muestra las preguntas enviadas antes de un fallo y el motivo por el que se cancela la consulta.
+	 * @return Futuro que se completa cuando se ha escrito todo
+	 */
+	public CompletableFuture<Void> mostrar(FalloResolucion fallo) {
+		return escribir(() -> {
+			mostrarSaltos(fallo.getSaltos());
+			Throwable causa = fallo.getCause();
+			if(causa instanceof SocketTimeoutException) {
+				// Time out: el servidor no ha respondido en el tiempo de espera indicado por la tabla de RTT
+				salida.println("El servidor DNS no ha respondido. Se cancela la consulta.");
+			}else if(causa instanceof UnknownHostException) {
+				salida.printf("No se pudo resolver el NS para %s. Se aborta la consulta.\n", fallo.getNombre());
+			}else {
+				salida.println("Error de conexión. Se cancela la consulta.");
+			}
+		});
+	}
+
+	private CompletableFuture<Void> escribir(Runnable tarea) {
+		if(hilo==null) {
+			tarea.run();
+			return CompletableFuture.completedFuture(null);
+		}
+		return CompletableFuture.runAsync(tarea, hilo);
+	}
+
+	private void mostrarSaltos(List<Salto> saltos) {
+		Salto anterior = null; // pregunta principal del grupo anterior
+		boolean fallo = false; // no respondió el grupo anterior
+		for(int i = 0; i<saltos.size(); ) {
+			// Un grupo es una pregunta y los respaldos que se enviaron mientras se esperaba su respuesta
+			Salto principal = saltos.get(i);
+			int fin = i + 1;
+			while(fin<saltos.size() && saltos.get(fin).isRespaldo()) {
+				fin++;
+			}
+
+			boolean mismaPregunta = anterior!=null && anterior.getNombre().equals(principal.getNombre())
+					&& anterior.getTipo()==principal.getTipo();
+			if(fallo && mismaPregunta && !principal.getServidorTexto().equals(anterior.getServidorTexto())) {
+				salida.printf("El servidor DNS %s no responde. Se prueba con %s.\n", anterior.getServidorTexto(),
+						principal.getServidorTexto());
+				mostrarCuestion(principal);
+			}else if(!(fallo && mismaPregunta)) {
+				mostrarCuestion(principal); // un reintento al mismo servidor no se vuelve a mostrar
+			}
+
+			Salto ganador = respondido(principal) ? principal : null;
+			for(int j = i + 1; j<fin; j++) {
+				Salto respaldo = saltos.get(j);
+				salida.printf("El servidor DNS %s tarda en responder. Se pregunta también a %s.\n",
+						principal.getServidorTexto(), respaldo.getServidorTexto());
+				if(respondido(respaldo)) {
+					ganador = respaldo;
+					mostrarCuestion(respaldo);
+				}
+			}
+			if(ganador!=null) {
+				mostrarRespuesta(ganador);
+			}
+
+			anterior = ganador!=null ? ganador : principal;
+			fallo = ganador==null;
+			i = fin;
+		}
+	}
+
+	private static boolean respondido(Salto salto) {
+		switch(salto.getEstado()) {
+		case RESPUESTA:
+		case DELEGACION:
+		case REINTENTO:
+		case RECHAZADA:
+		case TRUNCADA:
+		case CACHE:
+			return true;
+		default:
+			return false; // sin respuesta, error o descartado
+		}
+	}
+
+	private void mostrarCuestion(Salto salto) {
+		if(salto.getEstado()==Salto.Estado.CACHE) {
+			return; // no se ha preguntado a nadie
+		}
+		salida.printf("Q %s %s %s %s\n", salto.isTCP() ? "TCP" : "UDP", salto.getServidorTexto(),
+				salto.getTipo().name(), salto.getNombre().toString());
+	}
+
+	private void mostrarRespuesta(Salto salto) {
+		String servidor = salto.getServidorTexto();
+		switch(salto.getEstado()) {
+		case DELEGACION:
+			if(salto.getNS()!=null) {
+				salida.printf("A %s %s %d %s\n", servidor, "NS", salto.getTTLNS(), salto.getNS().toString());
+			}
+			if(salto.getDireccionNS()!=null) {
+				salida.printf("A %s %s %d %s\n", servidor, "A", salto.getTTLDireccion(),
+						Salto.texto(salto.getDireccionNS()));
+			}
+			break;
+		case TRUNCADA:
+			salida.println("La respuesta está truncada. Se reintenta con TCP.");
+			break;
+		case RECHAZADA:
+			salida.printf("El servidor DNS %s rechaza la pregunta (RCODE %d). Se prueba con otro.\n", servidor,
+					salto.getRespuesta().getRCODE());
+			break;
+		case RESPUESTA:
+		case CACHE:
+			List<ResourceRecord> registros = salto.getRegistros();
+			if(registros.isEmpty()) {
+				salida.println("No hay respuesta");
+			}
+			for(ResourceRecord registro: registros) {
+				mostrarRegistro(servidor!=null ? servidor : "caché", salto.getTipo(), registro);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void mostrarRegistro(String servidor, RRType tipo, ResourceRecord registro) {
+		if(registro.getRRType()!=tipo) {
+			if(registro.getRRType()==RRType.CNAME) {
+				// CNAME en lugar del tipo pedido: el nombre es un alias
+				salida.printf("A %s CNAME %s\n", servidor, ((CNAMEResourceRecord) registro).getCNAME().toString());
+			}else if(registro.getRRType()==RRType.DNAME) {
+				// DNAME de un ancestro: redirige todo el subárbol en el que está el nombre
+				salida.printf("A %s DNAME %s %s\n", servidor, registro.getDomain().toString(),
+						((DNAMEResourceRecord) registro).getTarget().toString());
+			}
+			return;
+		}
+
+		String respuesta;
+		switch(registro.getRRType()) {
+		case A:
+			respuesta = ((AResourceRecord) registro).getAddress().getHostAddress(); // tipo A: la respuesta es una dirección IPv4
+			break;
+		case AAAA:
+			respuesta = ((AAAAResourceRecord) registro).getAddress().getHostAddress(); // tipo AAAA: la respuesta es una dirección IPv6
+			break;
+		case NS:
+			respuesta = ((NSResourceRecord) registro).getDomain().toString(); // tipo NS: la respuesta es un nombre de dominio
+			break;
+		case CNAME:
+			respuesta = ((CNAMEResourceRecord) registro).getCNAME().toString(); // tipo CNAME: la respuesta es un alias del FQDN
+			break;
+		case DNAME:
+			respuesta = ((DNAMEResourceRecord) registro).getTarget().toString(); // tipo DNAME: la respuesta es el destino del subárbol
+			break;
+		case PTR:
+			respuesta = ((PTRResourceRecord) registro).getPTR().toString(); // tipo PTR: la respuesta es el nombre al que apunta
+			break;
+		case SRV:
+			respuesta = ((SRVResourceRecord) registro).getFullAnswer(); // tipo SRV: prioridad, peso, puerto y máquina del servicio
+			break;
+		case MX:
+			respuesta = ((MXResourceRecord) registro).getFullAnswer(); // tipo MX: la respuesta es el FQDN del servidor de correo
+			break;
+		case TXT:
+			respuesta = ((TXTResourceRecord) registro).getTxt(); // tipo TXT: información sobre el dominio
+			break;
+		case SOA:
+			respuesta = ((SOAResourceRecord) registro).getFullAnswer(); // tipo SOA: servidor primario, responsable y tiempos de la zona
+			break;
+		default:
+			return; // si la respuesta no la soportamos, la ignoramos por completo
+		}
+		salida.printf("A %s %s %d %s\n", servidor, tipo.toString(), registro.getTTL(), respuesta);
+	}
+
+	/**
+	 * Termina el hilo de escritura, si lo hay, tras escribir lo que tuviese pendiente.
+	 */
+	@Override
+	public void close() {
+		if(hilo!=null) {
+			hilo.shutdown();
+		}
+	}
+
+}
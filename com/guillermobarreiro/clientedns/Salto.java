@@ -0,0 +1,209 @@
+package com.guillermobarreiro.clientedns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+import es.uvigo.det.ro.simpledns.DomainName;
+import es.uvigo.det.ro.simpledns.Message;
+import es.uvigo.det.ro.simpledns.RRType;
+import es.uvigo.det.ro.simpledns.ResourceRecord;
+
+/**
+ * Una pregunta enviada a un servidor durante una resolución y lo que se obtuvo de ella: la respuesta, la delegación
+ * que se siguió o el motivo por el que no sirvió. También puede ser una pregunta respondida por la
+ * {@link CacheRegistros}, sin servidor.
+ * @author Guillermo Barreiro
+ *
+ */
+public class Salto {
+
+	/**
+	 * Resultado de la pregunta.
+	 */
+	public enum Estado {
+		EN_CURSO, // aún no ha terminado
+		RESPUESTA, // respuesta final: registros en ANSWERS o ningún servidor más al que preguntar
+		DELEGACION, // referencia a los servidores de una zona inferior
+		REINTENTO, // respuesta que obliga a repetir la pregunta al mismo servidor (p. ej. no entiende EDNS(0))
+		RECHAZADA, // respuesta SERVFAIL o REFUSED sin registros: se pregunta a otro servidor de la delegación
+		TRUNCADA, // respuesta UDP truncada: se repite por TCP
+		SIN_RESPUESTA, // el servidor no respondió a tiempo
+		ERROR, // error de conexión
+		DESCARTADO, // otra pregunta enviada a la vez respondió antes
+		CACHE // respondida con registros de la caché, sin preguntar a ningún servidor
+	}
+
+	private final byte[] servidor; // null si se respondió desde la caché
+	private final boolean tcp;
+	private final DomainName nombre;
+	private final RRType tipo;
+	private final boolean respaldo;
+	private final long enviado; // System.nanoTime() al enviar
+	private final long inicio; // milisegundos desde el comienzo de la resolución
+	private volatile Estado estado = Estado.EN_CURSO;
+	private volatile long duracion = -1;
+	private volatile Message respuesta;
+	byte[] datos; // respuesta sin decodificar, para recorrerla con MessageVisitor
+	private DomainName ns; // delegación seguida: NS elegido, con su TTL
+	private int ttlNS;
+	private byte[] direccionNS; // y su IPv4, con su TTL (null si la delegación no tenía glue)
+	private int ttlDireccion;
+	private List<ResourceRecord> registros; // solo si se respondió desde la caché
+
+	Salto(byte[] servidor, boolean tcp, DomainName nombre, RRType tipo, boolean respaldo, long comienzo) {
+		this.servidor = servidor;
+		this.tcp = tcp;
+		this.nombre = nombre;
+		this.tipo = tipo;
+		this.respaldo = respaldo;
+		this.enviado = System.nanoTime();
+		this.inicio = (enviado - comienzo) / 1_000_000L;
+	}
+
+	/**
+	 * Crea una pregunta respondida por la caché.
+	 */
+	static Salto cache(DomainName nombre, RRType tipo, List<ResourceRecord> registros, long comienzo) {
+		Salto salto = new Salto(null, false, nombre, tipo, false, comienzo);
+		salto.registros = registros;
+		salto.duracion = 0;
+		salto.estado = Estado.CACHE;
+		return salto;
+	}
+
+	/**
+	 * Anota la respuesta recibida.
+	 */
+	Salto recibir(byte[] datos) {
+		this.datos = datos;
+		this.duracion = (System.nanoTime() - enviado) / 1_000_000L;
+		return this;
+	}
+
+	/**
+	 * Anota cómo ha terminado la pregunta.
+	 */
+	void terminar(Estado estado) {
+		if(duracion<0) {
+			duracion = (System.nanoTime() - enviado) / 1_000_000L;
+		}
+		this.estado = estado;
+	}
+
+	void setRespuesta(Message respuesta) {
+		this.respuesta = respuesta;
+	}
+
+	void setDelegacion(DomainName ns, int ttlNS, byte[] direccionNS, int ttlDireccion) {
+		this.ns = ns;
+		this.ttlNS = ttlNS;
+		this.direccionNS = direccionNS;
+		this.ttlDireccion = ttlDireccion;
+		this.estado = Estado.DELEGACION;
+	}
+
+	/**
+	 * Dirección IPv4 del servidor al que se preguntó, como un array de 4 bytes, o null si se respondió desde la caché.
+	 */
+	public byte[] getServidor() {
+		return servidor==null ? null : servidor.clone();
+	}
+
+	/**
+	 * La misma dirección, como texto ("XXX.XXX.XXX.XXX"), o null si se respondió desde la caché.
+	 */
+	public String getServidorTexto() {
+		return servidor==null ? null : texto(servidor);
+	}
+
+	/**
+	 * true si la pregunta se envió por TCP.
+	 */
+	public boolean isTCP() {
+		return tcp;
+	}
+
+	public DomainName getNombre() {
+		return nombre;
+	}
+
+	public RRType getTipo() {
+		return tipo;
+	}
+
+	/**
+	 * true si es una pregunta de respaldo, enviada porque el servidor elegido tardaba en responder.
+	 */
+	public boolean isRespaldo() {
+		return respaldo;
+	}
+
+	public Estado getEstado() {
+		return estado;
+	}
+
+	/**
+	 * Momento en que se envió la pregunta, en milisegundos desde el comienzo de la resolución.
+	 */
+	public long getInicio() {
+		return inicio;
+	}
+
+	/**
+	 * Tiempo hasta la respuesta o el fallo, en milisegundos, o -1 si no ha terminado.
+	 */
+	public long getDuracion() {
+		return duracion;
+	}
+
+	/**
+	 * La respuesta decodificada, o null si no la hubo.
+	 */
+	public Message getRespuesta() {
+		return respuesta;
+	}
+
+	/**
+	 * Registros de la sección ANSWERS de la respuesta o, si se respondió desde la caché, los registros guardados en
+	 * ella con el TTL que les quedaba. Vacía si no hubo respuesta.
+	 */
+	public List<ResourceRecord> getRegistros() {
+		if(registros!=null) {
+			return registros;
+		}
+		return respuesta==null ? List.of() : respuesta.getAnswers();
+	}
+
+	/**
+	 * Nombre del servidor de la delegación que se eligió para el siguiente salto, o null si no es una delegación.
+	 */
+	public DomainName getNS() {
+		return ns;
+	}
+
+	public int getTTLNS() {
+		return ttlNS;
+	}
+
+	/**
+	 * IPv4 del siguiente servidor, tomada de la sección additional, o null si la delegación no la incluía y hubo que
+	 * resolverla aparte.
+	 */
+	public byte[] getDireccionNS() {
+		return direccionNS==null ? null : direccionNS.clone();
+	}
+
+	public int getTTLDireccion() {
+		return ttlDireccion;
+	}
+
+	static String texto(byte[] ip) {
+		try {
+			return InetAddress.getByAddress(ip).getHostAddress();
+		}catch(UnknownHostException e) {
+			return null; // no puede ocurrir: la dirección tiene 4 o 16 bytes
+		}
+	}
+
+}
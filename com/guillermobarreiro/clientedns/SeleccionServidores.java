@@ -0,0 +1,92 @@
+package com.guillermobarreiro.clientedns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Ordena los servidores de una delegación según el RTT medido con cada uno.
+ * Primero van los más rápidos; los que no se han medido cuentan con un RTT optimista, para que se prueben en cuanto
+ * los conocidos sean lentos, y los que han dejado de responder cuentan con su tiempo de espera. De vez en cuando se
+ * adelanta un servidor sin medir, para descubrir si es mejor que los conocidos.
+ * @author Guillermo Barreiro
+ *
+ */
+final class SeleccionServidores {
+
+	static final int RTT_DESCONOCIDO = 300; // RTT supuesto para un servidor sin medidas, en milisegundos
+	static final double EXPLORACION = 0.05; // probabilidad de empezar por un servidor sin medir
+
+	private SeleccionServidores() {
+	}
+
+	/**
+	 * Ordena las direcciones de la mejor a la peor. Los empates se deshacen al azar, para repartir la carga entre
+	 * servidores equivalentes.
+	 * @param direcciones Direcciones de los servidores (arrays de 4 o 16 bytes). No se modifica
+	 * @param tabla Tabla con los RTT medidos
+	 * @return Una lista nueva con las mismas direcciones, en el orden en que se deben probar
+	 */
+	static List<byte[]> ordenar(List<byte[]> direcciones, TablaRTT tabla) {
+		List<byte[]> orden = new ArrayList<>(direcciones);
+		if(orden.size()<2) {
+			return orden;
+		}
+		ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+		Collections.shuffle(orden, aleatorio);
+
+		int[] puntuaciones = new int[orden.size()];
+		boolean[] conocido = new boolean[orden.size()]; // ha respondido alguna vez o ha fallado hace poco
+		for(int i = 0; i<orden.size(); i++) {
+			InetAddress direccion = direccion(orden.get(i));
+			int srtt = tabla.getSRTT(direccion);
+			boolean falla = tabla.getFallos(direccion)>0;
+			conocido[i] = srtt>=0 || falla;
+			if(falla) {
+				puntuaciones[i] = tabla.getTimeout(direccion); // no respondió la última vez: cuenta lo que se esperaría
+			}else {
+				puntuaciones[i] = srtt>=0 ? srtt : RTT_DESCONOCIDO;
+			}
+		}
+
+		// Ordenación por inserción: una delegación tiene pocos servidores y así se mantiene el orden aleatorio en los empates
+		for(int i = 1; i<orden.size(); i++) {
+			for(int j = i; j>0 && puntuaciones[j - 1]>puntuaciones[j]; j--) {
+				intercambiar(orden, puntuaciones, conocido, j - 1, j);
+			}
+		}
+
+		if(aleatorio.nextDouble()<EXPLORACION) {
+			// Exploración: se adelanta el primer servidor sin medir, si lo hay
+			for(int i = 1; i<orden.size(); i++) {
+				if(!conocido[i]) {
+					orden.add(0, orden.remove(i));
+					break;
+				}
+			}
+		}
+		return orden;
+	}
+
+	private static void intercambiar(List<byte[]> orden, int[] puntuaciones, boolean[] conocido, int a, int b) {
+		Collections.swap(orden, a, b);
+		int p = puntuaciones[a];
+		puntuaciones[a] = puntuaciones[b];
+		puntuaciones[b] = p;
+		boolean c = conocido[a];
+		conocido[a] = conocido[b];
+		conocido[b] = c;
+	}
+
+	private static InetAddress direccion(byte[] ip) {
+		try {
+			return InetAddress.getByAddress(ip);
+		}catch(UnknownHostException e) {
+			throw new IllegalArgumentException("Dirección IP no válida", e);
+		}
+	}
+
+}
@@ -0,0 +1,118 @@
+package com.guillermobarreiro.clientedns;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import es.uvigo.det.ro.simpledns.DomainName;
+import es.uvigo.det.ro.simpledns.RRClass;
+import es.uvigo.det.ro.simpledns.RRType;
+
+/**
+ * Resoluciones en curso de un {@link Resolver}, por nombre, tipo y clase, para que quien pida un nombre que ya se está
+ * resolviendo espere a ese resultado en lugar de repetir las preguntas (single-flight).
+ * Se aplica igual a las resoluciones auxiliares (direcciones de servidores sin glue y nombres canónicos), que pueden
+ * depender unas de otras. Para que dos resoluciones no se esperen mutuamente para siempre, la tabla sabe a qué
+ * resoluciones espera cada una y no deja unirse a una resolución que, directa o indirectamente, espera a quien
+ * pregunta.
+ * @author Guillermo Barreiro
+ *
+ */
+final class TablaEnCurso {
+
+	private final HashMap<Pregunta, Vuelo> vuelos = new HashMap<>();
+
+	/**
+	 * Busca la resolución en curso de un nombre o, si no la hay, crea una nueva que ha de empezar quien reciba true
+	 * de {@link Vuelo#lanzar()}.
+	 * @param nombre Nombre que se va a resolver
+	 * @param tipo Tipo que se pide
+	 * @param quien Resolución que necesita el resultado, o null si lo pide alguien de fuera
+	 * @return La resolución a la que hay que esperar, o null si esperarla formaría un ciclo
+	 */
+	synchronized Vuelo unirse(DomainName nombre, RRType tipo, Vuelo quien) {
+		Pregunta clave = new Pregunta(nombre, tipo, RRClass.IN);
+		Vuelo vuelo = vuelos.get(clave);
+		if(vuelo==null) {
+			vuelo = new Vuelo(clave);
+			vuelos.put(clave, vuelo);
+		}else if(quien!=null && espera(vuelo, quien)) {
+			return null;
+		}
+		if(quien!=null) {
+			quien.espera.add(vuelo);
+		}
+		return vuelo;
+	}
+
+	/**
+	 * Anota que quien ya tiene el resultado de la resolución a la que esperaba.
+	 */
+	synchronized void dejarDeEsperar(Vuelo quien, Vuelo vuelo) {
+		if(quien!=null) {
+			quien.espera.remove(vuelo);
+		}
+	}
+
+	/**
+	 * Saca de la tabla una resolución que ha terminado, antes de completar su futuro, de modo que quien pregunte
+	 * después empiece otra (que normalmente encontrará la respuesta en la caché).
+	 */
+	synchronized void terminar(Vuelo vuelo) {
+		vuelos.remove(vuelo.clave, vuelo);
+		vuelo.espera.clear();
+	}
+
+	/**
+	 * Número de resoluciones en curso.
+	 */
+	synchronized int size() {
+		return vuelos.size();
+	}
+
+	/**
+	 * true si desde es quien o espera, directa o indirectamente, a quien.
+	 */
+	private static boolean espera(Vuelo desde, Vuelo quien) {
+		HashSet<Vuelo> vistos = new HashSet<>();
+		ArrayDeque<Vuelo> pendientes = new ArrayDeque<>();
+		pendientes.add(desde);
+		while(!pendientes.isEmpty()) {
+			Vuelo vuelo = pendientes.poll();
+			if(vuelo==quien) {
+				return true;
+			}
+			if(vistos.add(vuelo)) {
+				pendientes.addAll(vuelo.espera);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Una resolución en curso y las resoluciones a las que espera.
+	 */
+	static final class Vuelo {
+		final Pregunta clave;
+		final CompletableFuture<Resultado> futuro = new CompletableFuture<>();
+		final List<Vuelo> espera = new ArrayList<>(1); // protegida por el cerrojo de la tabla
+		private final AtomicBoolean lanzado = new AtomicBoolean();
+		volatile List<Salto> traza; // traza de quien la empezó, para los fallos de quienes se unieron
+
+		private Vuelo(Pregunta clave) {
+			this.clave = clave;
+		}
+
+		/**
+		 * @return true solo la primera vez: quien lo recibe ha de empezar la resolución y completar el futuro
+		 */
+		boolean lanzar() {
+			return lanzado.compareAndSet(false, true);
+		}
+	}
+
+}
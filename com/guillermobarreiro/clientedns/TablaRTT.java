@@ -0,0 +1,170 @@
+package com.guillermobarreiro.clientedns;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tabla de infraestructura: tiempo de ida y vuelta (RTT) medido con cada servidor DNS.
+ * Para cada dirección guarda el RTT suavizado y su variación, como TCP (RFC 6298), y de ellos obtiene el tiempo de
+ * espera de la siguiente consulta (RTO). Cada vez que un servidor no responde se duplica su RTO.
+ * La tabla tiene un número máximo de entradas (se descartan las menos usadas) y olvida las que no se actualizan
+ * durante un tiempo, para que un servidor que estuvo caído pueda volver a elegirse.
+ * @author Guillermo Barreiro
+ *
+ */
+public class TablaRTT {
+
+	public static final int RTO_INICIAL = 1000; // tiempo de espera con un servidor sin medidas, en milisegundos
+	public static final int RTO_MINIMO = 50;
+	public static final int RTO_MAXIMO = 5*1000;
+	private static final int MAX_ENTRADAS = 10000;
+	private static final long CADUCIDAD = 15*60*1000L; // las medidas se olvidan tras 15 minutos sin actualizarse
+
+	private final int maxEntradas;
+	private final long caducidad;
+	private final LinkedHashMap<InetAddress, Entrada> entradas;
+
+	/**
+	 * Crea una tabla con los límites por defecto: 10000 servidores y 15 minutos de caducidad.
+	 */
+	public TablaRTT() {
+		this(MAX_ENTRADAS, CADUCIDAD);
+	}
+
+	/**
+	 * Crea una tabla vacía.
+	 * @param maxEntradas Número máximo de servidores que se recuerdan
+	 * @param caducidad Tiempo, en milisegundos, tras el que se olvida un servidor que no se ha vuelto a medir
+	 */
+	public TablaRTT(int maxEntradas, long caducidad) {
+		if(maxEntradas<1 || caducidad<=0) {
+			throw new IllegalArgumentException("Límites no válidos para la tabla de RTT");
+		}
+		this.maxEntradas = maxEntradas;
+		this.caducidad = caducidad;
+		this.entradas = new LinkedHashMap<InetAddress, Entrada>(16, 0.75f, true) { // orden de acceso: LRU
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<InetAddress, Entrada> mayor) {
+				return size()>TablaRTT.this.maxEntradas;
+			}
+		};
+	}
+
+	/**
+	 * Tiempo de espera para la siguiente consulta al servidor: SRTT + 4·RTTVAR, duplicado por cada vez seguida que
+	 * no ha respondido y limitado entre {@link #RTO_MINIMO} y {@link #RTO_MAXIMO}.
+	 * @param servidor Dirección del servidor
+	 * @return El tiempo de espera en milisegundos, o {@link #RTO_INICIAL} si el servidor no se ha medido
+	 */
+	public synchronized int getTimeout(InetAddress servidor) {
+		Entrada entrada = buscar(servidor);
+		return entrada==null ? RTO_INICIAL : entrada.rto;
+	}
+
+	/**
+	 * RTT suavizado del servidor, para elegir entre varios servidores.
+	 * @param servidor Dirección del servidor
+	 * @return El RTT suavizado en milisegundos, o -1 si no hay medidas del servidor
+	 */
+	public synchronized int getSRTT(InetAddress servidor) {
+		Entrada entrada = buscar(servidor);
+		return entrada==null || entrada.srtt<0 ? -1 : entrada.srtt;
+	}
+
+	/**
+	 * Variación del RTT del servidor.
+	 * @param servidor Dirección del servidor
+	 * @return La variación en milisegundos, o 0 si no hay medidas del servidor
+	 */
+	public synchronized int getRTTVAR(InetAddress servidor) {
+		Entrada entrada = buscar(servidor);
+		return entrada==null || entrada.srtt<0 ? 0 : entrada.rttvar;
+	}
+
+	/**
+	 * Número de consultas seguidas que el servidor ha dejado sin responder.
+	 * @param servidor Dirección del servidor
+	 * @return 0 si respondió a la última consulta o no hay medidas del servidor
+	 */
+	public synchronized int getFallos(InetAddress servidor) {
+		Entrada entrada = buscar(servidor);
+		return entrada==null ? 0 : entrada.fallos;
+	}
+
+	/**
+	 * Añade una medida del RTT de un servidor que ha respondido.
+	 * @param servidor Dirección del servidor
+	 * @param rtt Tiempo entre el envío de la consulta y la llegada de la respuesta, en milisegundos
+	 */
+	public synchronized void registrarRTT(InetAddress servidor, int rtt) {
+		Entrada entrada = obtener(servidor);
+		rtt = Math.max(rtt, 0);
+		if(entrada.srtt<0) {
+			// Primera medida (RFC 6298, 2.2)
+			entrada.srtt = rtt;
+			entrada.rttvar = rtt / 2;
+		}else {
+			// RFC 6298, 2.3: alfa = 1/8, beta = 1/4
+			entrada.rttvar = (3*entrada.rttvar + Math.abs(entrada.srtt - rtt)) / 4;
+			entrada.srtt = (7*entrada.srtt + rtt) / 8;
+		}
+		entrada.fallos = 0;
+		entrada.rto = limitar(entrada.srtt + Math.max(RTO_MINIMO, 4*entrada.rttvar));
+		entrada.actualizada = System.nanoTime();
+	}
+
+	/**
+	 * Anota que un servidor no ha respondido a tiempo: se duplica su tiempo de espera (RFC 6298, 5.5).
+	 * @param servidor Dirección del servidor
+	 */
+	public synchronized void registrarTimeout(InetAddress servidor) {
+		Entrada entrada = obtener(servidor);
+		entrada.fallos++;
+		entrada.rto = limitar(entrada.rto*2);
+		entrada.actualizada = System.nanoTime();
+	}
+
+	/**
+	 * Número de servidores en la tabla, incluidos los caducados que aún no se han descartado.
+	 */
+	public synchronized int size() {
+		return entradas.size();
+	}
+
+	private Entrada buscar(InetAddress servidor) {
+		Entrada entrada = entradas.get(servidor);
+		if(entrada!=null && System.nanoTime() - entrada.actualizada>caducidad*1_000_000L) {
+			entradas.remove(servidor); // medida antigua: el servidor se trata como desconocido
+			return null;
+		}
+		return entrada;
+	}
+
+	private Entrada obtener(InetAddress servidor) {
+		Entrada entrada = buscar(servidor);
+		if(entrada==null) {
+			entrada = new Entrada();
+			entradas.put(servidor, entrada);
+		}
+		return entrada;
+	}
+
+	private static int limitar(int rto) {
+		return Math.max(RTO_MINIMO, Math.min(RTO_MAXIMO, rto));
+	}
+
+	/**
+	 * Medidas de un servidor, en milisegundos.
+	 */
+	private static class Entrada {
+		int srtt = -1; // -1: aún no ha respondido nunca
+		int rttvar;
+		int rto = RTO_INICIAL;
+		int fallos; // consultas seguidas sin respuesta
+		long actualizada = System.nanoTime();
+	}
+
+}
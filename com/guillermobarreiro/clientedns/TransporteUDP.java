@@ -0,0 +1,466 @@
+package com.guillermobarreiro.clientedns;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Transporte UDP de larga duración para las consultas DNS.
+ * Mantiene un pequeño conjunto de sockets no bloqueantes, cada uno en un puerto aleatorio, atendidos por un único
+ * hilo con un Selector. Cada consulta recibe un ID aleatorio libre en su socket y se completa de forma asíncrona
+ * cuando llega una respuesta con el mismo ID, desde la misma dirección y con la misma pregunta (o sin pregunta, si
+ * es un FORMERR o NOTIMP), o cuando vence su tiempo de espera. Así se pueden tener miles de consultas en curso sin
+ * un hilo ni un socket por cada una.
+ * El RTT de cada respuesta y cada consulta sin respuesta se anotan en una {@link TablaRTT}, de la que sale el tiempo
+ * de espera por defecto de cada servidor.
+ * @author Guillermo Barreiro
+ *
+ */
+public class TransporteUDP implements AutoCloseable {
+
+	private static final int NUM_CANALES = 4; // sockets UDP abiertos por el transporte
+	private static final int MAX_DATAGRAMA = 65535;
+	private static final int MAX_INTENTOS_ID = 64; // intentos para encontrar un ID libre en un socket
+	private static final int MAX_INTENTOS_PUERTO = 16; // intentos para enlazar un socket a un puerto aleatorio
+	private static final int PUERTO_MINIMO = 1024;
+	private static final int BUFFER_SOCKET = 1<<20; // buffer de recepción del sistema: absorbe ráfagas de respuestas
+	private static final int LOTE_ENVIO = 64; // consultas nuevas enviadas entre dos lecturas de los sockets
+	private static final int RCODE_FORMERR = 1;
+	private static final int RCODE_NOTIMP = 4;
+
+	private static TransporteUDP compartido;
+
+	private final Selector selector;
+	private final TablaRTT tablaRTT;
+	private final Canal[] canales;
+	private final ConcurrentLinkedQueue<Pendiente> nuevas = new ConcurrentLinkedQueue<>(); // consultas aún no enviadas
+	private final PriorityQueue<Pendiente> plazos = new PriorityQueue<>((a, b) -> Long.compare(a.plazo, b.plazo));
+	// Buffer directo: el datagrama llega sin pasar por el buffer temporal del JDK. Solo lo usa el hilo del selector
+	private final ByteBuffer recepcion = ByteBuffer.allocateDirect(MAX_DATAGRAMA);
+	private final SecureRandom aleatorio = new SecureRandom();
+	private final Thread hilo;
+	private volatile boolean cerrado;
+	private int siguienteCanal;
+
+	/**
+	 * Transporte compartido por todas las consultas que no indiquen uno propio. Se crea la primera vez que se usa.
+	 * @return El transporte compartido
+	 * @throws IOException en caso de que no se puedan abrir los sockets
+	 */
+	public static synchronized TransporteUDP compartido() throws IOException {
+		if(compartido==null || compartido.cerrado) {
+			compartido = new TransporteUDP(NUM_CANALES);
+		}
+		return compartido;
+	}
+
+	/**
+	 * Abre los sockets del transporte, con una tabla de RTT propia, y arranca el hilo que los atiende.
+	 * @param numCanales Número de sockets UDP, cada uno en un puerto aleatorio distinto
+	 * @throws IOException en caso de que no se puedan abrir los sockets
+	 */
+	public TransporteUDP(int numCanales) throws IOException {
+		this(numCanales, new TablaRTT());
+	}
+
+	/**
+	 * Abre los sockets del transporte y arranca el hilo que los atiende.
+	 * @param numCanales Número de sockets UDP, cada uno en un puerto aleatorio distinto
+	 * @param tablaRTT Tabla en la que se anotan las medidas de RTT y de la que salen los tiempos de espera
+	 * @throws IOException en caso de que no se puedan abrir los sockets
+	 */
+	public TransporteUDP(int numCanales, TablaRTT tablaRTT) throws IOException {
+		if(numCanales<1) {
+			throw new IllegalArgumentException("Se necesita al menos un socket: " + numCanales);
+		}
+
+		this.tablaRTT = tablaRTT;
+		this.selector = Selector.open();
+		this.canales = new Canal[numCanales];
+		try {
+			for(int i = 0; i<numCanales; i++) {
+				canales[i] = new Canal(abrirCanal());
+				canales[i].canal.register(selector, SelectionKey.OP_READ, canales[i]);
+			}
+		}catch(IOException e) {
+			cerrarCanales();
+			throw e;
+		}
+
+		this.hilo = new Thread(this::bucle, "TransporteUDP");
+		this.hilo.setDaemon(true); // no impide que termine el programa
+		this.hilo.start();
+	}
+
+	/**
+	 * Envía una consulta con el tiempo de espera que la tabla de RTT indica para el servidor.
+	 * @see #enviar(byte[], int, byte[], long)
+	 */
+	public CompletableFuture<byte[]> enviar(byte[] ip, int puerto, byte[] peticion) throws IOException {
+		return enviar(ip, puerto, peticion, tablaRTT.getTimeout(InetAddress.getByAddress(ip)));
+	}
+
+	/**
+	 * Tabla con el RTT medido con cada servidor.
+	 */
+	public TablaRTT getTablaRTT() {
+		return tablaRTT;
+	}
+
+	/**
+	 * Envía una consulta al servidor indicado sin bloquearse.
+	 * El ID de la petición se sobrescribe con uno aleatorio que no esté en uso, por lo que el array se modifica.
+	 * El futuro se completa en el hilo del transporte: las acciones encadenadas sin un Executor propio no deben
+	 * bloquearse.
+	 * @param ip Dirección IP del servidor, como un array de 4 o 16 bytes
+	 * @param puerto Puerto del servidor
+	 * @param peticion Petición DNS completa, modelada como un array de bytes (raw data)
+	 * @param timeout Tiempo máximo de espera de la respuesta, en milisegundos
+	 * @return Futuro con la respuesta, del tamaño exacto del datagrama recibido. Si no llega a tiempo, termina con
+	 * una SocketTimeoutException
+	 * @throws IOException en caso de que el transporte esté cerrado o la petición no sea válida
+	 */
+	public CompletableFuture<byte[]> enviar(byte[] ip, int puerto, byte[] peticion, long timeout) throws IOException {
+		if(cerrado) {
+			throw new IOException("El transporte UDP está cerrado");
+		}
+		int finPregunta = finPregunta(peticion);
+		if(finPregunta<0) {
+			throw new IllegalArgumentException("La petición no contiene una pregunta válida");
+		}
+
+		Pendiente pendiente = new Pendiente(new InetSocketAddress(InetAddress.getByAddress(ip), puerto), peticion,
+				finPregunta, System.nanoTime() + timeout*1_000_000L);
+		nuevas.add(pendiente);
+		selector.wakeup(); // el hilo del transporte la enviará en cuanto despierte
+		return pendiente.futuro;
+	}
+
+	/**
+	 * Cierra los sockets y termina con una excepción las consultas que estuviesen en curso.
+	 */
+	@Override
+	public void close() {
+		cerrado = true;
+		selector.wakeup();
+		if(Thread.currentThread()!=hilo) {
+			try {
+				hilo.join();
+			}catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private DatagramChannel abrirCanal() throws IOException {
+		DatagramChannel canal = DatagramChannel.open();
+		try {
+			canal.configureBlocking(false);
+			canal.setOption(StandardSocketOptions.SO_RCVBUF, BUFFER_SOCKET);
+
+			// Puerto de origen aleatorio: dificulta la falsificación de respuestas (RFC 5452)
+			for(int intento = 0; intento<MAX_INTENTOS_PUERTO; intento++) {
+				int puerto = PUERTO_MINIMO + aleatorio.nextInt(65536 - PUERTO_MINIMO);
+				try {
+					canal.bind(new InetSocketAddress(puerto));
+					return canal;
+				}catch(BindException e) {
+					// Puerto ocupado, se prueba con otro
+				}
+			}
+			canal.bind(null); // que elija el sistema operativo
+			return canal;
+		}catch(IOException e) {
+			canal.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Bucle del hilo del transporte: envía las consultas nuevas, recibe las respuestas y vence los plazos.
+	 */
+	private void bucle() {
+		try {
+			while(!cerrado) {
+				if(!nuevas.isEmpty()) {
+					selector.selectNow(); // quedan consultas por enviar: no se espera
+				}else {
+					long espera = 0; // 0: sin límite
+					Pendiente primera = plazos.peek();
+					if(primera!=null) {
+						espera = Math.max(1, (primera.plazo - System.nanoTime()) / 1_000_000L);
+					}
+					selector.select(espera);
+				}
+
+				registrarNuevas();
+
+				Iterator<SelectionKey> claves = selector.selectedKeys().iterator();
+				while(claves.hasNext()) {
+					SelectionKey clave = claves.next();
+					claves.remove();
+					Canal canal = (Canal) clave.attachment();
+					if(clave.isValid() && clave.isReadable()) {
+						recibir(canal);
+					}
+					if(clave.isValid() && clave.isWritable()) {
+						vaciarSalida(canal, clave);
+					}
+				}
+
+				vencerPlazos();
+			}
+		}catch(IOException | ClosedSelectorException e) {
+			// Error irrecuperable en los sockets: se cierra el transporte
+		}finally {
+			cerrado = true;
+			cerrarCanales();
+			IOException error = new IOException("El transporte UDP está cerrado");
+			for(Pendiente p; (p = nuevas.poll())!=null;) {
+				p.futuro.completeExceptionally(error);
+			}
+			for(Pendiente p: plazos) {
+				p.futuro.completeExceptionally(error);
+			}
+			plazos.clear();
+		}
+	}
+
+	/**
+	 * Asigna un socket y un ID a las consultas nuevas y las envía (o las encola si el socket no admite más datos).
+	 * Se envía como mucho un lote en cada vuelta del bucle, para leer las respuestas antes de que se llenen los
+	 * buffers de recepción.
+	 */
+	private void registrarNuevas() {
+		Pendiente p;
+		for(int n = 0; n<LOTE_ENVIO && (p = nuevas.poll())!=null; n++) {
+			if(p.futuro.isDone()) {
+				continue; // cancelada antes de enviarse
+			}
+			if(!asignarId(p)) {
+				p.futuro.completeExceptionally(new IOException("Demasiadas consultas UDP en curso"));
+				continue;
+			}
+			plazos.add(p);
+
+			Canal canal = p.canal;
+			if(canal.salida.isEmpty() && enviar(p)) {
+				continue; // enviada (o fallida)
+			}
+			canal.salida.add(p);
+			canal.canal.keyFor(selector).interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+
+	/**
+	 * Intenta enviar una consulta por su socket.
+	 * @return false si no cabe en el buffer de envío y hay que esperar; true si se envió o si falló, en cuyo caso
+	 * la consulta termina con el error
+	 */
+	private boolean enviar(Pendiente p) {
+		try {
+			p.enviada = System.nanoTime();
+			return p.canal.canal.send(ByteBuffer.wrap(p.peticion), p.servidor)>0;
+		}catch(IOException e) {
+			// Error de este envío (p. ej. red inalcanzable): solo afecta a esta consulta
+			p.canal.enCurso[p.id] = null;
+			p.futuro.completeExceptionally(e);
+			return true;
+		}
+	}
+
+	private boolean asignarId(Pendiente p) {
+		for(int i = 0; i<canales.length; i++) {
+			Canal canal = canales[siguienteCanal];
+			siguienteCanal = (siguienteCanal + 1) % canales.length;
+
+			for(int intento = 0; intento<MAX_INTENTOS_ID; intento++) {
+				int id = aleatorio.nextInt(65536);
+				if(canal.enCurso[id]==null) {
+					canal.enCurso[id] = p;
+					p.canal = canal;
+					p.id = id;
+					p.peticion[0] = (byte) (id >> 8);
+					p.peticion[1] = (byte) id;
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void vaciarSalida(Canal canal, SelectionKey clave) {
+		while(!canal.salida.isEmpty()) {
+			Pendiente p = canal.salida.peek();
+			if(!p.futuro.isDone() && !enviar(p)) {
+				return; // sigue sin haber sitio, se espera al siguiente OP_WRITE
+			}
+			canal.salida.poll();
+		}
+		clave.interestOps(SelectionKey.OP_READ);
+	}
+
+	private void recibir(Canal canal) throws IOException {
+		while(true) {
+			recepcion.clear();
+			SocketAddress origen = canal.canal.receive(recepcion);
+			if(origen==null) {
+				return; // no quedan datagramas
+			}
+
+			int longitud = recepcion.position();
+			if(longitud<12 || (recepcion.get(2) & 0x80)==0) {
+				continue; // no es una respuesta DNS
+			}
+
+			int id = ((recepcion.get(0) & 0xff) << 8) | (recepcion.get(1) & 0xff);
+			Pendiente p = canal.enCurso[id];
+			if(p==null || !p.servidor.equals(origen)) {
+				continue; // respuesta tardía, duplicada o falsificada: se descarta
+			}
+
+			// El mensaje se copia con su longitud exacta: el decodificador usa la longitud del array como límite y los
+			// registros decodificados siguen apuntando a él, así que no puede ser un buffer reutilizable
+			byte[] respuesta = new byte[longitud];
+			recepcion.get(0, respuesta);
+			if(!mismaPregunta(p.peticion, p.finPregunta, respuesta, longitud)) {
+				continue; // la pregunta no coincide: se descarta
+			}
+
+			canal.enCurso[id] = null;
+			tablaRTT.registrarRTT(p.servidor.getAddress(), (int) ((System.nanoTime() - p.enviada) / 1_000_000L));
+			p.futuro.complete(respuesta);
+		}
+	}
+
+	private void vencerPlazos() {
+		long ahora = System.nanoTime();
+		for(Pendiente p = plazos.peek(); p!=null && (p.plazo - ahora<=0 || p.futuro.isDone()); p = plazos.peek()) {
+			plazos.poll();
+			if(p.canal.enCurso[p.id]==p) {
+				p.canal.enCurso[p.id] = null;
+			}
+			if(!p.futuro.isDone()) {
+				tablaRTT.registrarTimeout(p.servidor.getAddress());
+				p.futuro.completeExceptionally(new SocketTimeoutException("El servidor DNS no ha respondido"));
+			}
+		}
+	}
+
+	private void cerrarCanales() {
+		for(Canal canal: canales) {
+			if(canal!=null) {
+				try {
+					canal.canal.close();
+				}catch(IOException e) {
+					// Se ignora: se está cerrando
+				}
+			}
+		}
+		try {
+			selector.close();
+		}catch(IOException e) {
+			// Se ignora: se está cerrando
+		}
+	}
+
+	/**
+	 * Posición del final de la sección de pregunta (nombre, tipo y clase) de una petición propia, que no usa
+	 * compresión. Devuelve -1 si la petición no contiene una pregunta completa.
+	 */
+	static int finPregunta(byte[] mensaje) {
+		if(mensaje.length<12) {
+			return -1;
+		}
+		int i = 12;
+		while(i<mensaje.length && mensaje[i]!=0) {
+			if((mensaje[i] & 0xc0)!=0) {
+				return -1;
+			}
+			i += (mensaje[i] & 0xff) + 1;
+		}
+		i += 1 + 4; // etiqueta final + tipo + clase
+		return i<=mensaje.length ? i : -1;
+	}
+
+	/**
+	 * Comprueba que la respuesta repite la pregunta de la petición, sin distinguir mayúsculas de minúsculas.
+	 * Se acepta también una respuesta FORMERR o NOTIMP sin pregunta (QDCOUNT 0), como las que envían muchos
+	 * servidores que no entienden la petición (p. ej. su registro OPT): sin ella no se sabría que hay que repetirla
+	 * de otra forma hasta que venciese su plazo.
+	 */
+	static boolean mismaPregunta(byte[] peticion, int finPregunta, byte[] respuesta, int longitud) {
+		if(longitud>=12 && respuesta[4]==0 && respuesta[5]==0) {
+			int rcode = respuesta[3] & 0x0f;
+			return rcode==RCODE_FORMERR || rcode==RCODE_NOTIMP;
+		}
+		if(longitud<finPregunta) {
+			return false;
+		}
+		for(int i = 12; i<finPregunta; i++) {
+			byte a = peticion[i], b = respuesta[i];
+			if(a!=b && minuscula(a)!=minuscula(b)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Pasa a minúscula una letra ASCII: DNS no distingue mayúsculas solo en ese rango.
+	 */
+	private static byte minuscula(byte c) {
+		return c>='A' && c<='Z' ? (byte) (c + ('a' - 'A')) : c;
+	}
+
+	/**
+	 * Socket del transporte y consultas en curso en él, indexadas por su ID.
+	 * Solo lo usa el hilo del transporte.
+	 */
+	private static class Canal {
+		final DatagramChannel canal;
+		final Pendiente[] enCurso = new Pendiente[65536];
+		final ArrayDeque<Pendiente> salida = new ArrayDeque<>(); // consultas que no cupieron en el socket
+
+		Canal(DatagramChannel canal) {
+			this.canal = canal;
+		}
+	}
+
+	/**
+	 * Consulta enviada (o por enviar) a la espera de su respuesta.
+	 */
+	private static class Pendiente {
+		final InetSocketAddress servidor;
+		final byte[] peticion;
+		final int finPregunta;
+		final long plazo; // System.nanoTime() a partir del cual se da por perdida
+		long enviada; // System.nanoTime() del envío, para medir el RTT
+		final CompletableFuture<byte[]> futuro = new CompletableFuture<>();
+		Canal canal;
+		int id;
+
+		Pendiente(InetSocketAddress servidor, byte[] peticion, int finPregunta, long plazo) {
+			this.servidor = servidor;
+			this.peticion = peticion;
+			this.finPregunta = finPregunta;
+			this.plazo = plazo;
+		}
+	}
+
+}
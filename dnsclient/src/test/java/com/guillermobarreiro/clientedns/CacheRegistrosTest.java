@@ -0,0 +1,138 @@
+package com.guillermobarreiro.clientedns;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import es.uvigo.det.ro.simpledns.DomainName;
+import es.uvigo.det.ro.simpledns.Message;
+import es.uvigo.det.ro.simpledns.PTRResourceRecord;
+import es.uvigo.det.ro.simpledns.RRClass;
+import es.uvigo.det.ro.simpledns.RRType;
+import es.uvigo.det.ro.simpledns.ResourceRecord;
+import es.uvigo.det.ro.simpledns.SRVResourceRecord;
+
+/**
+ * Registros cuyos datos contienen nombres comprimidos: la copia que guarda la caché no puede apuntar al mensaje del
+ * que se decodificaron.
+ * @author Guillermo Barreiro
+ *
+ */
+class CacheRegistrosTest {
+
+	@Test
+	void guardaUnPTRComprimido() throws Exception {
+		// Pregunta 1.2.0.192.in-addr.arpa PTR; la respuesta apunta a mail.in-addr.arpa, con in-addr.arpa comprimido
+		ByteArrayOutputStream mensaje = cabecera();
+		nombre(mensaje, "1", "2", "0", "192", "in-addr", "arpa");
+		corto(mensaje, 12);
+		corto(mensaje, 1);
+		int inAddr = 12 + 2 + 2 + 2 + 4; // etiqueta in-addr de la pregunta
+		registro(mensaje, 12, new byte[] {4, 'm', 'a', 'i', 'l', (byte) (0xc0 | inAddr >> 8), (byte) inAddr});
+
+		List<ResourceRecord> guardados = guardarYBuscar(mensaje.toByteArray(), RRType.PTR);
+
+		assertInstanceOf(PTRResourceRecord.class, guardados.get(0));
+		assertEquals(new DomainName("mail.in-addr.arpa"), ((PTRResourceRecord) guardados.get(0)).getPTR());
+	}
+
+	@Test
+	void guardaUnSRVComprimido() throws Exception {
+		// Pregunta _sip._udp.example.com SRV; el destino, pbx.example.com, lleva example.com comprimido
+		ByteArrayOutputStream mensaje = cabecera();
+		nombre(mensaje, "_sip", "_udp", "example", "com");
+		corto(mensaje, 33);
+		corto(mensaje, 1);
+		int example = 12 + 5 + 5; // etiqueta example de la pregunta
+		registro(mensaje, 33, new byte[] {0, 10, 0, 60, 0x13, (byte) 0xc4, 3, 'p', 'b', 'x', (byte) (0xc0 | example >> 8),
+				(byte) example});
+
+		List<ResourceRecord> guardados = guardarYBuscar(mensaje.toByteArray(), RRType.SRV);
+
+		SRVResourceRecord srv = assertInstanceOf(SRVResourceRecord.class, guardados.get(0));
+		assertEquals(10, srv.getPriority());
+		assertEquals(60, srv.getWeight());
+		assertEquals(5060, srv.getPort());
+		assertEquals(new DomainName("pbx.example.com"), srv.getTarget());
+	}
+
+	@Test
+	void noGuardaUnTTLConElBitMasAlto() throws Exception {
+		// RFC 2181, 8: un TTL de 0xffffffff vale 0, no el máximo
+		ByteArrayOutputStream mensaje = cabecera();
+		nombre(mensaje, "www", "example", "com");
+		corto(mensaje, 1);
+		corto(mensaje, 1);
+		registro(mensaje, 1, 0xffffffff, new byte[] {10, 0, 0, 1});
+
+		Message respuesta = new Message(mensaje.toByteArray());
+		CacheRegistros cache = new CacheRegistros(1 << 20);
+		cache.guardar(respuesta.getAnswers());
+
+		assertNull(cache.buscar(new DomainName("www.example.com"), RRType.A, RRClass.IN));
+		assertEquals(0, cache.size());
+	}
+
+	private static List<ResourceRecord> guardarYBuscar(byte[] datos, RRType tipo) throws Exception {
+		Message respuesta = new Message(datos);
+		CacheRegistros cache = new CacheRegistros(1 << 20);
+		cache.guardar(respuesta.getAnswers());
+		datos[datos.length - 1] ^= 0x3f; // la caché no puede depender del mensaje original
+
+		List<ResourceRecord> guardados = cache.buscar(respuesta.getAnswers().get(0).getDomain(), tipo, RRClass.IN);
+		assertNotNull(guardados);
+		assertEquals(1, guardados.size());
+		return guardados;
+	}
+
+	/**
+	 * Cabecera de una respuesta con una pregunta y un registro en ANSWERS.
+	 */
+	private static ByteArrayOutputStream cabecera() {
+		ByteArrayOutputStream mensaje = new ByteArrayOutputStream();
+		corto(mensaje, 0x1234);
+		corto(mensaje, 0x8400);
+		corto(mensaje, 1);
+		corto(mensaje, 1);
+		corto(mensaje, 0);
+		corto(mensaje, 0);
+		return mensaje;
+	}
+
+	private static void nombre(ByteArrayOutputStream mensaje, String... etiquetas) {
+		for(String etiqueta: etiquetas) {
+			mensaje.write(etiqueta.length());
+			mensaje.writeBytes(etiqueta.getBytes());
+		}
+		mensaje.write(0);
+	}
+
+	/**
+	 * Registro cuyo nombre es un puntero a la pregunta.
+	 */
+	private static void registro(ByteArrayOutputStream mensaje, int tipo, byte[] datos) {
+		registro(mensaje, tipo, 300, datos);
+	}
+
+	private static void registro(ByteArrayOutputStream mensaje, int tipo, int ttl, byte[] datos) {
+		corto(mensaje, 0xc00c);
+		corto(mensaje, tipo);
+		corto(mensaje, 1);
+		corto(mensaje, ttl >>> 16);
+		corto(mensaje, ttl);
+		corto(mensaje, datos.length);
+		mensaje.writeBytes(datos);
+	}
+
+	private static void corto(ByteArrayOutputStream mensaje, int valor) {
+		mensaje.write(valor >> 8);
+		mensaje.write(valor);
+	}
+
+}
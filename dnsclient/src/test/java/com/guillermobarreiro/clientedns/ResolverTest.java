@@ -0,0 +1,195 @@
+package com.guillermobarreiro.clientedns;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import es.uvigo.det.ro.simpledns.DomainName;
+import es.uvigo.det.ro.simpledns.RRType;
+
+/**
+ * Respuestas sin registros en ANSWERS que traen NS en la sección authority sin ser una referencia: solo se sigue una
+ * delegación a una zona inferior. El servidor de prueba tiene autoridad sobre example.com, que el resolutor ya conoce
+ * por su caché de delegaciones.
+ * @author Guillermo Barreiro
+ *
+ */
+class ResolverTest {
+
+	private static final byte[] LOCAL = {127, 0, 0, 1};
+	private static final int EXAMPLE = 12 + 4; // example.com dentro de la pregunta www.example.com
+	private static final int COM = EXAMPLE + 8;
+
+	private DatagramSocket servidor;
+	private Thread respondedor;
+	private final AtomicInteger preguntas = new AtomicInteger();
+	private TransporteUDP transporte;
+	private ClienteTCP clienteTCP;
+	private CacheNegativa negativa;
+	private Resolver resolver;
+
+	@BeforeEach
+	void abrir() throws Exception {
+		servidor = new DatagramSocket(0, InetAddress.getByAddress(LOCAL));
+		transporte = new TransporteUDP(1);
+		clienteTCP = new ClienteTCP(1000);
+		negativa = new CacheNegativa(16);
+		CacheDelegaciones delegaciones = new CacheDelegaciones(16);
+		DomainName zona = new DomainName("example.com");
+		delegaciones.guardar(zona, List.of(new DomainName("ns1.example.com")), 3600);
+		delegaciones.anadirDireccion(zona, LOCAL, 3600);
+
+		resolver = new Resolver(LOCAL, transporte, clienteTCP);
+		resolver.setPuerto(servidor.getLocalPort());
+		resolver.setCache(new CacheRegistros(1 << 20));
+		resolver.setCacheDelegaciones(delegaciones);
+		resolver.setCacheNegativa(negativa);
+	}
+
+	@AfterEach
+	void cerrar() throws Exception {
+		servidor.close();
+		if(respondedor!=null) {
+			respondedor.join(1000);
+		}
+		transporte.close();
+		clienteTCP.close();
+	}
+
+	@Test
+	void unNODATAConLosNSDeSuZonaNoEsUnaReferencia() throws Exception {
+		// SOA y NS de example.com en authority, y la dirección del NS en additional
+		ByteArrayOutputStream registros = new ByteArrayOutputStream();
+		corto(registros, 0xc000 | EXAMPLE);
+		corto(registros, 6);
+		corto(registros, 1);
+		largo(registros, 300);
+		ByteArrayOutputStream soa = new ByteArrayOutputStream();
+		etiqueta(soa, "ns1");
+		corto(soa, 0xc000 | EXAMPLE);
+		etiqueta(soa, "hostmaster");
+		corto(soa, 0xc000 | EXAMPLE);
+		for(int campo: new int[] {1, 3600, 600, 86400, 300}) {
+			largo(soa, campo);
+		}
+		corto(registros, soa.size());
+		registros.writeBytes(soa.toByteArray());
+
+		corto(registros, 0xc000 | EXAMPLE);
+		corto(registros, 2);
+		corto(registros, 1);
+		largo(registros, 3600);
+		corto(registros, 6);
+		etiqueta(registros, "ns1");
+		corto(registros, 0xc000 | EXAMPLE);
+
+		etiqueta(registros, "ns1");
+		corto(registros, 0xc000 | EXAMPLE);
+		corto(registros, 1);
+		corto(registros, 1);
+		largo(registros, 3600);
+		corto(registros, 4);
+		registros.writeBytes(LOCAL);
+		responder(2, 1, registros.toByteArray());
+
+		Resultado resultado = resolver.resolver("www.example.com", RRType.A).get(5, TimeUnit.SECONDS);
+
+		assertEquals(Resultado.RCODE_NOERROR, resultado.getRCODE());
+		assertTrue(resultado.getRegistros().isEmpty());
+		assertEquals(1, preguntas.get());
+		assertEquals(Resultado.RCODE_NOERROR, negativa.buscar(new DomainName("www.example.com"), RRType.A));
+	}
+
+	@Test
+	void unaReferenciaHaciaArribaFallaSinRepetirPreguntas() throws Exception {
+		// Solo los NS de com, una zona por encima de la del servidor
+		ByteArrayOutputStream registros = new ByteArrayOutputStream();
+		corto(registros, 0xc000 | COM);
+		corto(registros, 2);
+		corto(registros, 1);
+		largo(registros, 3600);
+		corto(registros, 13);
+		etiqueta(registros, "a");
+		etiqueta(registros, "gtld");
+		etiqueta(registros, "test");
+		registros.write(0);
+		responder(1, 0, registros.toByteArray());
+
+		ExecutionException error = assertThrows(ExecutionException.class,
+				() -> resolver.resolver("www.example.com", RRType.A).get(5, TimeUnit.SECONDS));
+
+		FalloResolucion fallo = assertInstanceOf(FalloResolucion.class, error.getCause());
+		assertInstanceOf(IOException.class, fallo.getCause());
+		assertEquals(1, preguntas.get());
+		assertEquals(-1, negativa.buscar(new DomainName("www.example.com"), RRType.A));
+	}
+
+	/**
+	 * Responde a todas las preguntas con NOERROR, ningún registro en ANSWERS y los registros indicados en las
+	 * secciones authority y additional.
+	 */
+	private void responder(int numAutoridad, int numAdicionales, byte[] registros) {
+		respondedor = new Thread(() -> {
+			DatagramPacket recibido = new DatagramPacket(new byte[512], 512);
+			try {
+				while(true) {
+					servidor.receive(recibido);
+					preguntas.incrementAndGet();
+					byte[] peticion = recibido.getData();
+					int fin = 12;
+					while(peticion[fin]!=0) {
+						fin += peticion[fin] + 1;
+					}
+					fin += 5; // etiqueta raíz, tipo y clase
+
+					ByteArrayOutputStream respuesta = new ByteArrayOutputStream();
+					respuesta.write(peticion, 0, 2);
+					corto(respuesta, 0x8400); // QR y AA
+					corto(respuesta, 1);
+					corto(respuesta, 0);
+					corto(respuesta, numAutoridad);
+					corto(respuesta, numAdicionales);
+					respuesta.write(peticion, 12, fin - 12);
+					respuesta.writeBytes(registros);
+					servidor.send(new DatagramPacket(respuesta.toByteArray(), respuesta.size(),
+							recibido.getSocketAddress()));
+				}
+			}catch(IOException e) {
+				// cerrado
+			}
+		}, "ResolverTest");
+		respondedor.setDaemon(true);
+		respondedor.start();
+	}
+
+	private static void etiqueta(ByteArrayOutputStream mensaje, String etiqueta) {
+		mensaje.write(etiqueta.length());
+		mensaje.writeBytes(etiqueta.getBytes());
+	}
+
+	private static void corto(ByteArrayOutputStream mensaje, int valor) {
+		mensaje.write(valor >> 8);
+		mensaje.write(valor);
+	}
+
+	private static void largo(ByteArrayOutputStream mensaje, int valor) {
+		corto(mensaje, valor >>> 16);
+		corto(mensaje, valor);
+	}
+
+}
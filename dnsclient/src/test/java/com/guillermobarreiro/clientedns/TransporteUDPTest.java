@@ -0,0 +1,88 @@
+package com.guillermobarreiro.clientedns;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import es.uvigo.det.ro.simpledns.Message;
+import es.uvigo.det.ro.simpledns.RRType;
+
+/**
+ * Respuestas sin sección de pregunta: solo se aceptan los FORMERR y NOTIMP.
+ * @author Guillermo Barreiro
+ *
+ */
+class TransporteUDPTest {
+
+	private static final byte[] LOCAL = {127, 0, 0, 1};
+
+	private DatagramSocket servidor;
+	private TransporteUDP transporte;
+
+	@BeforeEach
+	void abrir() throws Exception {
+		servidor = new DatagramSocket(0, InetAddress.getByAddress(LOCAL));
+		transporte = new TransporteUDP(1);
+	}
+
+	@AfterEach
+	void cerrar() {
+		transporte.close();
+		servidor.close();
+	}
+
+	@Test
+	void aceptaUnFORMERRSinPregunta() throws Exception {
+		byte[] respuesta = preguntarYResponder(1).get(2, TimeUnit.SECONDS);
+
+		assertEquals(12, respuesta.length);
+		assertEquals(1, new Message(respuesta).getRCODE());
+	}
+
+	@Test
+	void aceptaUnNOTIMPSinPregunta() throws Exception {
+		byte[] respuesta = preguntarYResponder(4).get(2, TimeUnit.SECONDS);
+
+		assertEquals(4, new Message(respuesta).getRCODE());
+	}
+
+	@Test
+	void descartaOtrasRespuestasSinPregunta() throws Exception {
+		ExecutionException error = assertThrows(ExecutionException.class,
+				() -> preguntarYResponder(0).get(2, TimeUnit.SECONDS));
+
+		assertInstanceOf(SocketTimeoutException.class, error.getCause());
+	}
+
+	/**
+	 * Envía una pregunta al servidor de prueba, que responde solo con la cabecera: el mismo ID, QR, el código
+	 * indicado y todas las secciones vacías.
+	 */
+	private CompletableFuture<byte[]> preguntarYResponder(int rcode) throws Exception {
+		byte[] peticion = new Message("www.example.com", RRType.A, false).toByteArray();
+		CompletableFuture<byte[]> futuro = transporte.enviar(LOCAL, servidor.getLocalPort(), peticion, 500);
+
+		DatagramPacket recibido = new DatagramPacket(new byte[512], 512);
+		servidor.receive(recibido);
+		byte[] respuesta = new byte[12];
+		respuesta[0] = recibido.getData()[0];
+		respuesta[1] = recibido.getData()[1];
+		respuesta[2] = (byte) 0x80;
+		respuesta[3] = (byte) rcode;
+		servidor.send(new DatagramPacket(respuesta, respuesta.length, recibido.getSocketAddress()));
+		return futuro;
+	}
+
+}
@@ -0,0 +1,47 @@
+package es.uvigo.det.ro.simpledns;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * El destino de un DNAME no se comprime al codificarlo (RFC 6672, 2.5), aunque comparta sufijo con el propietario.
+ * @author Guillermo Barreiro
+ *
+ */
+class DNAMEResourceRecordTest {
+
+	@Test
+	void codificaElDestinoSinComprimir() throws Exception {
+		DomainName propietario = new DomainName("dn.example.com");
+		DomainName destino = new DomainName("other.example.com");
+		byte[] datos = destino.toByteArray();
+		ByteBuffer registro = ByteBuffer.allocate(512);
+		registro.put(propietario.toByteArray());
+		registro.putShort((short) 39).putShort((short) 1).putInt(300).putShort((short) datos.length).put(datos);
+
+		DNAMEResourceRecord dname = assertInstanceOf(DNAMEResourceRecord.class,
+				ResourceRecord.createResourceRecord(Arrays.copyOf(registro.array(), registro.position()), 0));
+		assertEquals(destino, dname.getTarget());
+
+		ByteBuffer salida = ByteBuffer.allocate(512);
+		int longitud = new MessageEncoder().encode(dname, salida);
+		int inicioDatos = propietario.getEncodedLength() + 10; // tipo, clase, TTL y rdlength
+		byte[] codificados = Arrays.copyOfRange(salida.array(), inicioDatos, longitud);
+		assertArrayEquals(datos, codificados); // sin ningún puntero a example.com del propietario
+		assertEquals(datos.length, Utils.int16fromByteArray(salida.array(), inicioDatos - 2));
+	}
+
+	@Test
+	void sustituyeElSufijo() {
+		DomainName propietario = new DomainName("dn.example.com");
+		assertEquals(new DomainName("www.other.com"),
+				new DomainName("www.dn.example.com").replaceSuffix(propietario, new DomainName("other.com")));
+	}
+
+}
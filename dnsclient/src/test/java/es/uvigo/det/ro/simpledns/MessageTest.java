@@ -0,0 +1,85 @@
+package es.uvigo.det.ro.simpledns;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Las respuestas decodificadas bajo demanda se comparten entre los hilos de las consultas agrupadas: todos deben leer
+ * los mismos registros, decodificados una sola vez.
+ * @author Guillermo Barreiro
+ *
+ */
+class MessageTest {
+
+	private static final int REGISTROS = 200;
+	private static final int HILOS = 8;
+
+	@Test
+	void losRegistrosPerezososSeLeenDesdeVariosHilos() throws Exception {
+		Message respuesta = new Message(respuesta(), true);
+		List<ResourceRecord> respuestas = respuesta.getAnswers();
+		assertEquals(REGISTROS, respuestas.size());
+
+		ExecutorService hilos = Executors.newFixedThreadPool(HILOS);
+		try {
+			CountDownLatch salida = new CountDownLatch(1);
+			List<Future<ResourceRecord[]>> leidos = new ArrayList<>();
+			for(int h = 0; h < HILOS; h++) {
+				Callable<ResourceRecord[]> lector = () -> {
+					salida.await();
+					ResourceRecord[] registros = new ResourceRecord[REGISTROS];
+					for(int i = 0; i < REGISTROS; i++) {
+						registros[i] = respuestas.get(i);
+					}
+					return registros;
+				};
+				leidos.add(hilos.submit(lector));
+			}
+			salida.countDown();
+
+			ResourceRecord[] primeros = leidos.get(0).get();
+			for(Future<ResourceRecord[]> leido : leidos) {
+				ResourceRecord[] registros = leido.get();
+				for(int i = 0; i < REGISTROS; i++) {
+					assertSame(primeros[i], registros[i]);
+				}
+			}
+			for(int i = 0; i < REGISTROS; i++) {
+				AResourceRecord a = assertInstanceOf(AResourceRecord.class, primeros[i]);
+				assertEquals(new DomainName("www.example.com"), a.getDomain());
+				assertEquals("10.0." + (i / 256) + "." + (i % 256), a.getAddress().getHostAddress());
+			}
+		} finally {
+			hilos.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return respuesta a www.example.com A con {@link #REGISTROS} direcciones, todas con el nombre comprimido
+	 */
+	private static byte[] respuesta() {
+		ByteBuffer mensaje = ByteBuffer.allocate(512 + REGISTROS * 16);
+		mensaje.putShort((short) 0x1234).putShort((short) 0x8180) // respuesta, RD y RA
+				.putShort((short) 1).putShort((short) REGISTROS).putShort((short) 0).putShort((short) 0);
+		mensaje.put(new DomainName("www.example.com").toByteArray()).putShort((short) 1).putShort((short) 1);
+		for(int i = 0; i < REGISTROS; i++) {
+			mensaje.putShort((short) 0xc00c).putShort((short) 1).putShort((short) 1).putInt(300).putShort((short) 4)
+					.put((byte) 10).put((byte) 0).put((byte) (i / 256)).put((byte) i);
+		}
+		return Arrays.copyOf(mensaje.array(), mensaje.position());
+	}
+
+}
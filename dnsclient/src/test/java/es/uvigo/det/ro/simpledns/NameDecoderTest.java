@@ -0,0 +1,166 @@
+package es.uvigo.det.ro.simpledns;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Nombres comprimidos mal formados: punteros que forman bucles, que van hacia delante o fuera del mensaje, y nombres
+ * de más de 255 bytes. Cada caso se decodifica de las tres formas posibles (directamente, con un {@link NameDecoder}
+ * y con uno que pasa por un {@link DomainNamePool}), que han de rechazarlo igual.
+ * @author Guillermo Barreiro
+ *
+ */
+class NameDecoderTest {
+
+	private static final int NOMBRE = 12; // primer byte tras la cabecera
+
+	@Test
+	void decodificaUnNombreComprimido() {
+		ByteArrayOutputStream mensaje = cabecera();
+		etiquetas(mensaje, "Example", "COM");
+		mensaje.write(0);
+		int www = mensaje.size();
+		etiquetas(mensaje, "www");
+		puntero(mensaje, NOMBRE);
+
+		for(Function<Integer, DomainName> decodificador: decodificadores(mensaje.toByteArray())) {
+			assertEquals(new DomainName("www.example.com"), decodificador.apply(www));
+		}
+	}
+
+	@Test
+	void rechazaUnPunteroASiMismo() {
+		ByteArrayOutputStream mensaje = cabecera();
+		puntero(mensaje, NOMBRE);
+
+		rechazar(mensaje.toByteArray(), NOMBRE, "Compression pointer does not go backwards");
+	}
+
+	@Test
+	void rechazaUnBucleDePunteros() {
+		// El nombre en 14 apunta al de 12, que vuelve al de 14
+		ByteArrayOutputStream mensaje = cabecera();
+		puntero(mensaje, NOMBRE + 2);
+		puntero(mensaje, NOMBRE);
+
+		rechazar(mensaje.toByteArray(), NOMBRE + 2, "Compression pointer does not go backwards");
+	}
+
+	@Test
+	void rechazaUnPunteroHaciaDelante() {
+		ByteArrayOutputStream mensaje = cabecera();
+		puntero(mensaje, NOMBRE + 2);
+		etiquetas(mensaje, "example", "com");
+		mensaje.write(0);
+
+		rechazar(mensaje.toByteArray(), NOMBRE, "Compression pointer does not go backwards");
+	}
+
+	@Test
+	void rechazaUnPunteroFueraDelMensaje() {
+		ByteArrayOutputStream mensaje = cabecera();
+		etiquetas(mensaje, "www");
+		puntero(mensaje, 0x3fff);
+
+		rechazar(mensaje.toByteArray(), NOMBRE, "Compression pointer does not go backwards");
+	}
+
+	@Test
+	void rechazaUnPunteroCortado() {
+		ByteArrayOutputStream mensaje = cabecera();
+		etiquetas(mensaje, "www");
+		mensaje.write(0xc0); // falta el segundo byte del puntero
+
+		rechazar(mensaje.toByteArray(), NOMBRE, "Domain name exceeds the message length");
+	}
+
+	@Test
+	void rechazaUnaEtiquetaConBitsReservados() {
+		ByteArrayOutputStream mensaje = cabecera();
+		mensaje.write(0x41); // tipo de etiqueta 01, sin definir
+		mensaje.writeBytes(new byte[0x41]);
+		mensaje.write(0);
+
+		rechazar(mensaje.toByteArray(), NOMBRE, "Label longer than 63 bytes");
+	}
+
+	@Test
+	void aceptaUnNombreDe255Bytes() {
+		// 3 etiquetas de 63 y una de 61: 3*64 + 62 + la raíz
+		ByteArrayOutputStream mensaje = cabecera();
+		etiquetas(mensaje, etiqueta(63), etiqueta(63), etiqueta(63), etiqueta(61));
+		mensaje.write(0);
+
+		for(Function<Integer, DomainName> decodificador: decodificadores(mensaje.toByteArray())) {
+			assertEquals(255, decodificador.apply(NOMBRE).getEncodedLength());
+		}
+	}
+
+	@Test
+	void rechazaUnNombreDeMasDe255Bytes() {
+		ByteArrayOutputStream mensaje = cabecera();
+		etiquetas(mensaje, etiqueta(63), etiqueta(63), etiqueta(63), etiqueta(62));
+		mensaje.write(0);
+
+		rechazar(mensaje.toByteArray(), NOMBRE, "Domain name longer than 255 bytes");
+	}
+
+	@Test
+	void rechazaUnNombreDeMasDe255BytesTrasUnPuntero() {
+		// Cada parte cabe por separado, pero la etiqueta y el sufijo al que apunta suman 64 + 193 + 1 bytes
+		ByteArrayOutputStream mensaje = cabecera();
+		etiquetas(mensaje, etiqueta(63), etiqueta(63), etiqueta(63));
+		mensaje.write(0);
+		int largo = mensaje.size();
+		etiquetas(mensaje, etiqueta(63));
+		puntero(mensaje, NOMBRE);
+
+		rechazar(mensaje.toByteArray(), largo, "Domain name longer than 255 bytes");
+	}
+
+	/**
+	 * Comprueba que las tres formas de decodificar rechazan el nombre con el mismo error.
+	 */
+	private static void rechazar(byte[] mensaje, int offset, String error) {
+		for(Function<Integer, DomainName> decodificador: decodificadores(mensaje)) {
+			IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> decodificador.apply(offset));
+			assertEquals(error, e.getMessage());
+		}
+	}
+
+	private static List<Function<Integer, DomainName>> decodificadores(byte[] mensaje) {
+		return List.of(
+				offset -> new DomainName(mensaje, offset),
+				offset -> new NameDecoder(mensaje, null).decode(offset),
+				offset -> new NameDecoder(mensaje, new DomainNamePool(16)).decode(offset));
+	}
+
+	private static ByteArrayOutputStream cabecera() {
+		ByteArrayOutputStream mensaje = new ByteArrayOutputStream();
+		mensaje.writeBytes(new byte[NOMBRE]);
+		return mensaje;
+	}
+
+	private static void etiquetas(ByteArrayOutputStream mensaje, String... etiquetas) {
+		for(String etiqueta: etiquetas) {
+			mensaje.write(etiqueta.length());
+			mensaje.writeBytes(etiqueta.getBytes());
+		}
+	}
+
+	private static void puntero(ByteArrayOutputStream mensaje, int destino) {
+		mensaje.write(0xc0 | destino >> 8);
+		mensaje.write(destino);
+	}
+
+	private static String etiqueta(int longitud) {
+		return "a".repeat(longitud);
+	}
+
+}
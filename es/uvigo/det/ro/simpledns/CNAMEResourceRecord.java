@@ -1,5 +1,7 @@
 package es.uvigo.det.ro.simpledns;
 
+import java.nio.ByteBuffer;
+
 /**
  * Modela un Resource Record de tipo CNAME
  * @author Guillermo Barreiro
@@ -8,15 +10,20 @@ package es.uvigo.det.ro.simpledns;
 public class CNAMEResourceRecord extends ResourceRecord {
 	private final DomainName cname;
 
-	protected CNAMEResourceRecord(ResourceRecord decoded, final byte[] message) {
+	protected CNAMEResourceRecord(ResourceRecord decoded, final NameDecoder names) {
         super(decoded);
 
-        cname = new DomainName(getRRData(), message);
+        cname = names.decode(getRDOffset());
     }
 
 	public DomainName getCNAME() {
 		return cname;
 	}
 
+	@Override
+	protected void encodeRData(MessageEncoder encoder, ByteBuffer out) {
+		encoder.writeName(cname, out);
+	}
+
 	
 }
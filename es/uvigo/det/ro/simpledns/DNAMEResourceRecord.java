@@ -0,0 +1,40 @@
+package es.uvigo.det.ro.simpledns;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Modela un Resource Record de tipo DNAME (RFC 6672): redirige todos los nombres por debajo de su propietario a los
+ * mismos nombres por debajo de su destino
+ * @author Guillermo Barreiro
+ *
+ */
+public class DNAMEResourceRecord extends ResourceRecord {
+	private final DomainName target;
+
+	protected DNAMEResourceRecord(ResourceRecord decoded, final NameDecoder names) {
+		super(decoded);
+
+		target = names.decode(getRDOffset());
+	}
+
+	public DomainName getTarget() {
+		return target;
+	}
+
+	/**
+	 * Nombre al que redirige este registro un nombre por debajo de su propietario
+	 * @throws IllegalArgumentException si el nombre no está por debajo del propietario o el resultado es demasiado largo
+	 */
+	public DomainName sustituir(DomainName nombre) {
+		if(nombre.equals(getDomain())) {
+			throw new IllegalArgumentException("DNAME no redirige a su propietario");
+		}
+		return nombre.replaceSuffix(getDomain(), target);
+	}
+
+	@Override
+	protected void encodeRData(MessageEncoder encoder, ByteBuffer out) {
+		encoder.writeUncompressedName(target, out); // RFC 6672, 2.5: el destino no se comprime
+	}
+
+}
@@ -16,94 +16,461 @@
  */
 package es.uvigo.det.ro.simpledns;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 /**
+ * A domain name, kept as a single lower-cased and uncompressed wire format
+ * array. Names compare case-insensitively and can be used as map keys. The
+ * parents of a name share its array.
  *
  * @author Miguel Rodriguez Perez
  */
 public class DomainName {
 
     private final static Charset ASCII = Charset.forName("US-ASCII");
-    private final List<String> labels = new ArrayList<>();
-    private int encoded_length = -1;
+    private final static int MAX_LENGTH = 255; // RFC 1035, section 2.3.4
+    private final static int MAX_LABEL = 63;
+    private final static int MAX_POINTERS = 127; // As many as labels fit in a name
+
+    private final byte[] wire; // Ends with the root label, may start with those of children
+    private final int start; // Where this name begins in wire
+    private final int hash;
+    private DomainName parent;
+    private String text;
 
     public DomainName(String domain) {
-        labels.addAll(Arrays.asList(domain.split("\\.")));
+        final String[] labels = domain.split("\\.");
+        int length = 1; // Root label
+        for (String label : labels) {
+            if (!label.isEmpty()) {
+                checkLabel(label.length());
+                length += label.length() + 1;
+            }
+        }
+        checkLength(length);
+
+        wire = new byte[length];
+        int i = 0;
+        for (String label : labels) {
+            if (!label.isEmpty()) {
+                wire[i++] = (byte) label.length();
+                for (byte b : label.getBytes(ASCII)) {
+                    wire[i++] = toLower(b);
+                }
+            }
+        }
+
+        start = 0;
+        hash = hash(wire, 0);
     }
 
     public DomainName(byte[] domain, byte[] message) {
-        fromByteArray(domain, message);
+        this(domain, 0, message);
+    }
+
+    /**
+     * Decodes a domain name found inside a message, without copying it
+     *
+     * @param message A byte array containing the complete message
+     * @param offset The position of the name inside the message
+     */
+    public DomainName(byte[] message, int offset) {
+        this(message, offset, message);
+    }
+
+    private DomainName(final byte[] domain, final int offset, final byte[] message) {
+        wire = new byte[wireLength(domain, offset, message)];
+        fromByteArray(domain, offset, message, wire);
+        start = 0;
+        hash = hash(wire, 0);
+    }
+
+    /**
+     * Builds a name from some labels found in place followed by an already
+     * decoded suffix
+     *
+     * @param message The array holding the first labels, already validated
+     * @param offset The position of the first label
+     * @param length The size of the labels before the suffix
+     * @param suffix The rest of the name
+     */
+    DomainName(final byte[] message, final int offset, final int length, final DomainName suffix) {
+        final int suffixLength = suffix.wire.length - suffix.start;
+        checkLength(length + suffixLength);
+
+        wire = new byte[length + suffixLength];
+        for (int i = 0; i < length; i++) {
+            wire[i] = toLower(message[offset + i]);
+        }
+        System.arraycopy(suffix.wire, suffix.start, wire, length, suffixLength);
+
+        start = 0;
+        hash = hash(wire, 0);
+    }
+
+    private DomainName(DomainName child) {
+        wire = child.wire;
+        start = child.start + wire[child.start] + 1;
+        hash = hash(wire, start);
     }
 
     @Override
     public String toString() {
-        String res = "";
-        
-        return labels.stream().map((label) -> label + '.').reduce(res, String::concat);        
+        if (text == null) {
+            if (isRoot()) {
+                text = ".";
+            } else {
+                StringBuilder sb = new StringBuilder(wire.length - start);
+                for (int i = start; wire[i] != 0; i += wire[i] + 1) {
+                    sb.append(new String(wire, i + 1, wire[i], ASCII)).append('.');
+                }
+                text = sb.toString();
+            }
+        }
+
+        return text;
     }
 
-    private void fromByteArray(final byte[] domain, final byte[] message) {
-        int i = 0;
-        while (i < domain.length) {
-            int size = (domain[i++] & 0xff);
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof DomainName)) {
+            return false;
+        }
+
+        final DomainName other = (DomainName) obj;
+        return hash == other.hash
+                && Arrays.equals(wire, start, wire.length, other.wire, other.start, other.wire.length);
+    }
+
+    /**
+     * Checks whether this name is the given one or lies below it
+     *
+     * @param other The possible ancestor
+     * @return true if other is a suffix of this name made of whole labels
+     */
+    public boolean isSubdomainOf(DomainName other) {
+        final int otherLength = other.wire.length - other.start;
+
+        int i = start;
+        while (wire.length - i > otherLength) {
+            i += wire[i] + 1;
+        }
+
+        return wire.length - i == otherLength
+                && Arrays.equals(wire, i, wire.length, other.wire, other.start, other.wire.length);
+    }
+
+    /**
+     * Replaces an ancestor of this name with another name, as a DNAME record
+     * does (RFC 6672, section 2.2)
+     *
+     * @param suffix The ancestor to replace
+     * @param replacement The name that takes its place
+     * @return the labels of this name before suffix, followed by replacement
+     * @throws IllegalArgumentException if suffix is not an ancestor of this
+     * name or the result is longer than 255 bytes
+     */
+    public DomainName replaceSuffix(DomainName suffix, DomainName replacement) {
+        if (!isSubdomainOf(suffix)) {
+            throw new IllegalArgumentException(suffix + " is not an ancestor of " + this);
+        }
+
+        final int length = (wire.length - start) - (suffix.wire.length - suffix.start);
+        return new DomainName(wire, start, length, replacement);
+    }
+
+    /**
+     * The name without its first label. It is built only once and shares the
+     * storage of this name.
+     *
+     * @return the parent, or null for the root
+     */
+    public DomainName getParent() {
+        if (parent == null && !isRoot()) {
+            parent = new DomainName(this);
+        }
+        return parent;
+    }
+
+    /**
+     * @return whether this is the root name
+     */
+    public boolean isRoot() {
+        return wire[start] == 0;
+    }
+
+    /**
+     * @return the number of labels, not counting the root one
+     */
+    public int getLabelCount() {
+        int count = 0;
+        for (int i = start; wire[i] != 0; i += wire[i] + 1) {
+            count++;
+        }
+        return count;
+    }
+
+    void setParent(DomainName parent) {
+        this.parent = parent;
+    }
+
+    static int wireLength(final byte[] domain, final int offset, final byte[] message) {
+        byte[] buffer = domain;
+        int i = offset;
+        int length = 1; // Root label
+        // Pointers must go backwards, so they cannot loop. A name stored
+        // outside the message may point anywhere in it
+        int limit = domain == message ? offset : message.length;
+        int pointers = 0;
+
+        while (true) {
+            if (i >= buffer.length) {
+                throw new IllegalArgumentException("Domain name exceeds the message length");
+            }
+            int size = (buffer[i++] & 0xff);
+            if (size == 0) {
+                return length;
+            }
+
+            if ((size & 0xc0) == 0xc0) { // Pointer
+                if (i >= buffer.length) {
+                    throw new IllegalArgumentException("Domain name exceeds the message length");
+                }
+                int pointer = (buffer[i] & 0xff) + ((size & 0x3f) << 8);
+                if (pointer >= limit) {
+                    throw new IllegalArgumentException("Compression pointer does not go backwards");
+                }
+                if (++pointers > MAX_POINTERS) {
+                    throw new IllegalArgumentException("Too many compression pointers");
+                }
+                buffer = message;
+                i = limit = pointer;
+                continue;
+            }
+
+            checkLabel(size);
+            length += size + 1;
+            checkLength(length);
+            i += size;
+        }
+    }
+
+    /**
+     * Copies the labels into wire, whose size was already validated
+     */
+    private static void fromByteArray(final byte[] domain, final int offset, final byte[] message, final byte[] wire) {
+        byte[] buffer = domain;
+        int i = offset;
+        int j = 0;
+
+        while (true) {
+            int size = (buffer[i++] & 0xff);
             if (size == 0) {
                 break;
             }
 
             if ((size & 0xc0) == 0xc0) { // Pointer
-                int offset = (domain[i++] & 0xff) + ((size & 0x3f) << 8);
-                setEncodedLength(i);
+                buffer = message;
+                i = (buffer[i] & 0xff) + ((size & 0x3f) << 8);
+                continue;
+            }
 
-                fromByteArray(Arrays.copyOfRange(message, offset, message.length), message);
+            wire[j++] = (byte) size;
+            for (int k = 0; k < size; k++) {
+                wire[j++] = toLower(buffer[i++]);
+            }
+        }
+    }
+
+    /**
+     * Computes the hash the encoded name at offset would have once decoded.
+     * The name must have been validated already.
+     *
+     * @param message A byte array containing the complete message
+     * @param offset The position of the name inside the message
+     * @return the same value {@link #hashCode()} returns for that name
+     */
+    static int encodedHash(final byte[] message, final int offset) {
+        int h = 1;
+        int i = offset;
 
-                return;
+        while (true) {
+            int size = (message[i++] & 0xff);
+            if ((size & 0xc0) == 0xc0) { // Pointer
+                i = (message[i] & 0xff) + ((size & 0x3f) << 8);
+                continue;
             }
 
-            String label = new String(Arrays.copyOfRange(domain, i, i + size), ASCII);
-            i += size;
-            labels.add(label);
+            h = 31 * h + size;
+            if (size == 0) {
+                return h;
+            }
+            for (int k = 0; k < size; k++) {
+                h = 31 * h + toLower(message[i++]);
+            }
         }
+    }
+
+    /**
+     * Compares two encoded names of a message, which must have been
+     * validated already
+     *
+     * @param message A byte array containing the complete message
+     * @param offset The position of one name
+     * @param otherOffset The position of the other name
+     * @return whether both are the same name
+     */
+    static boolean sameName(final byte[] message, final int offset, final int otherOffset) {
+        int i = offset;
+        int j = otherOffset;
 
-        setEncodedLength(i);
+        while (true) {
+            int size = (message[i++] & 0xff);
+            if ((size & 0xc0) == 0xc0) { // Pointer
+                i = (message[i] & 0xff) + ((size & 0x3f) << 8);
+                continue;
+            }
+            int otherSize = (message[j++] & 0xff);
+            if ((otherSize & 0xc0) == 0xc0) {
+                j = (message[j] & 0xff) + ((otherSize & 0x3f) << 8);
+                i--; // Read this label again
+                continue;
+            }
+
+            if (i - 1 == j - 1) {
+                return true; // Both reached the same bytes
+            }
+            if (size != otherSize) {
+                return false;
+            }
+            if (size == 0) {
+                return true;
+            }
+            for (int k = 0; k < size; k++) {
+                if (toLower(message[i++]) != toLower(message[j++])) {
+                    return false;
+                }
+            }
+        }
     }
 
-    public byte[] toByteArray() {
-        ByteArrayOutputStream bo = new ByteArrayOutputStream(labels.size() * 5); // A good approximation to final size
-        labels.forEach((label) -> {
-            try {
-                bo.write(label.length());
-                bo.write(label.getBytes(ASCII));
-            } catch (IOException ex) {
-                Logger.getLogger(DomainName.class.getName()).log(Level.SEVERE, null, ex);
-                System.exit(-1);
+    /**
+     * Compares this name with an encoded one, which must have been validated
+     * already
+     *
+     * @param message A byte array containing the complete message
+     * @param offset The position of the name inside the message
+     * @return whether both are the same name
+     */
+    boolean matches(final byte[] message, final int offset) {
+        int i = offset;
+        int j = start;
+
+        while (true) {
+            int size = (message[i++] & 0xff);
+            if ((size & 0xc0) == 0xc0) { // Pointer
+                i = (message[i] & 0xff) + ((size & 0x3f) << 8);
+                continue;
+            }
+
+            if (size != wire[j++]) {
+                return false;
+            }
+            if (size == 0) {
+                return true;
+            }
+            for (int k = 0; k < size; k++) {
+                if (toLower(message[i++]) != wire[j++]) {
+                    return false;
+                }
             }
-        });
-        bo.write(0); // Final label
+        }
+    }
+
+    /**
+     * Finds where an encoded name ends, without following pointers
+     *
+     * @param message A byte array containing the complete message
+     * @param offset The position of the name inside the message
+     * @return The position of the first byte after the name
+     * @throws Exception in case the name does not fit in the message
+     */
+    static int skip(final byte[] message, final int offset) throws Exception {
+        int i = offset;
+        while (i < message.length) {
+            int size = (message[i++] & 0xff);
+            if (size == 0) {
+                return i;
+            }
+            if ((size & 0xc0) == 0xc0) { // Pointer
+                i++;
+                if (i > message.length) {
+                    break;
+                }
+                return i;
+            }
+            i += size;
+        }
 
-        return bo.toByteArray();
+        throw new Exception("Domain name exceeds the message length");
     }
 
+    public byte[] toByteArray() {
+        return Arrays.copyOfRange(wire, start, wire.length);
+    }
+
+    /**
+     * Required size to serialize the name without compression. Inside a
+     * message it may take less, as it can be compressed.
+     *
+     * @return the number of bytes needed
+     */
     public int getEncodedLength() {
-        if (encoded_length < 0) {
-            encoded_length = labels.size(); // 1 byte for each label for its size
-            labels.forEach((label) -> {
-                encoded_length += label.length();
-            });
+        return wire.length - start;
+    }
+
+    /**
+     * @return the uncompressed wire format, shared with other names; it
+     * starts at {@link #getWireOffset()}
+     */
+    byte[] getWire() {
+        return wire;
+    }
+
+    int getWireOffset() {
+        return start;
+    }
+
+    private static int hash(final byte[] wire, final int start) {
+        int h = 1;
+        for (int i = start; i < wire.length; i++) {
+            h = 31 * h + wire[i];
+        }
+        return h;
+    }
+
+    private static byte toLower(byte b) {
+        return (b >= 'A' && b <= 'Z') ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    static void checkLabel(int size) {
+        if (size > MAX_LABEL) {
+            throw new IllegalArgumentException("Label longer than " + MAX_LABEL + " bytes");
         }
-        return encoded_length;
     }
 
-    private void setEncodedLength(int i) {
-        if (encoded_length < 0) { // Not recorded yet
-            encoded_length = i; 
+    private static void checkLength(int length) {
+        if (length > MAX_LENGTH) {
+            throw new IllegalArgumentException("Domain name longer than " + MAX_LENGTH + " bytes");
         }
     }
 }
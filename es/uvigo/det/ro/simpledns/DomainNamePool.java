@@ -0,0 +1,93 @@
+package es.uvigo.det.ro.simpledns;
+
+/**
+ * Size-bounded interning pool for domain names. Decoding a name that is
+ * already in the pool returns the pooled instance without allocating, so
+ * names repeated across records and messages (owners, NS targets, their
+ * parents) are stored only once.
+ *
+ * The pool is a direct-mapped table: a new name replaces whatever was in its
+ * slot, so memory never grows beyond the chosen capacity. It can be shared
+ * by several threads; a race at worst makes a name be stored twice.
+ *
+ * @author Guillermo Barreiro
+ */
+public class DomainNamePool {
+
+    private final DomainName[] table;
+    private final int mask;
+
+    /**
+     * Creates a pool
+     *
+     * @param capacity Maximum number of names kept, rounded up to a power of
+     * two
+     */
+    public DomainNamePool(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        table = new DomainName[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Returns the pooled instance of a name, storing it if it was not there
+     *
+     * @param name The name to look up
+     * @return an equal name, which is the given one if it was not pooled
+     */
+    public DomainName intern(DomainName name) {
+        final int slot = slot(name.hashCode());
+
+        DomainName pooled = table[slot];
+        if (name.equals(pooled)) {
+            return pooled;
+        }
+
+        add(slot, name);
+        return name;
+    }
+
+    /**
+     * @return the maximum number of names kept
+     */
+    public int getCapacity() {
+        return table.length;
+    }
+
+    DomainName decode(final byte[] message, final int offset) {
+        DomainName.wireLength(message, offset, message); // Validates it before it is walked
+        final int hash = DomainName.encodedHash(message, offset);
+        final int slot = slot(hash);
+
+        DomainName pooled = table[slot];
+        if (pooled != null && pooled.hashCode() == hash && pooled.matches(message, offset)) {
+            return pooled;
+        }
+
+        DomainName name = new DomainName(message, offset);
+        add(slot, name);
+        return name;
+    }
+
+    /**
+     * Stores a name, linking it to the pooled instances of its parents so
+     * walking up from any pooled name does not allocate
+     */
+    private void add(int slot, DomainName name) {
+        if (!name.isRoot()) {
+            name.setParent(intern(name.getParent()));
+        }
+        table[slot] = name;
+    }
+
+    private int slot(int hash) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
@@ -1,6 +1,6 @@
 package es.uvigo.det.ro.simpledns;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
  * Modela un Resource Record de tipo MX
@@ -12,13 +12,11 @@ public class MXResourceRecord extends ResourceRecord {
 	private int preference;
 	private DomainName serverName;
 
-	protected MXResourceRecord(ResourceRecord decoded, final byte[] message) {
+	protected MXResourceRecord(ResourceRecord decoded, final NameDecoder names) {
         super(decoded);
         
-        byte[] preferenceBytes = Arrays.copyOfRange(getRRData(), 0, 2);
-        byte[] finalMessage = Arrays.copyOfRange(getRRData(), 2, getRRData().length);
-        preference = Utils.int16fromByteArray(preferenceBytes);
-        serverName = new DomainName(finalMessage,message);
+        preference = Utils.int16fromByteArray(names.getMessage(), getRDOffset());
+        serverName = names.decode(getRDOffset() + 2);
         
         
 
@@ -35,6 +33,12 @@ public class MXResourceRecord extends ResourceRecord {
 	public String getFullAnswer() {
 		return preference + " " + serverName.toString();
 	}
+
+	@Override
+	protected void encodeRData(MessageEncoder encoder, ByteBuffer out) {
+		out.putShort((short) preference);
+		encoder.writeName(serverName, out);
+	}
 	
 
 }
@@ -16,12 +16,16 @@
  */
 package es.uvigo.det.ro.simpledns;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  *
@@ -30,6 +34,9 @@ import java.util.List;
 public class Message {
 
     private static final SecureRandom RANDOM = new SecureRandom();
+    private static final int HEADER_SIZE = 12;
+    private static final int UDP_SIZE = 512; // RFC 1035 limit for UDP messages
+    private static final int MAX_SIZE = 65535;
     private final int messageId;
     private DomainName question;
     private RRType questionType;
@@ -38,6 +45,7 @@ public class Message {
     private final List<ResourceRecord> nameServers;
     private final List<ResourceRecord> additionalRecords;
     private final MessageOptions options;
+    private OPTResourceRecord opt; // EDNS(0) pseudo-record, if any
 
     /**
      * Constructs a message of the given type
@@ -84,86 +92,226 @@ public class Message {
      * @throws Exception in case the Message cannot be parsed
      */
     public Message(final byte[] messageBytes) throws Exception {
-        byte[] buffer = messageBytes;
-        final int length = messageBytes.length;
+        this(messageBytes, false);
+    }
+
+    /**
+     * Constructs a message from a byte array. In lazy mode only the header
+     * and the question are decoded here; the resource records are just
+     * located, and each one is decoded the first time it is accessed through
+     * the section lists. Those lists can be read from several threads.
+     *
+     * @param messageBytes the bytes forming the complete message. In lazy
+     * mode they must not be modified while the message is in use
+     * @param lazy Whether to postpone decoding of the resource records
+     * @throws Exception in case the header or question cannot be parsed, or
+     * the records do not fit in the message
+     */
+    public Message(final byte[] messageBytes, final boolean lazy) throws Exception {
+        this(messageBytes, lazy, null);
+    }
+
+    /**
+     * Constructs a message from a byte array, sharing the domain names it
+     * contains with those already in a pool
+     *
+     * @param messageBytes the bytes forming the complete message
+     * @param lazy Whether to postpone decoding of the resource records
+     * @param pool Where to intern the decoded names, or null not to intern
+     * them
+     * @throws Exception in case the Message cannot be parsed
+     * @see #Message(byte[], boolean)
+     */
+    public Message(final byte[] messageBytes, final boolean lazy, final DomainNamePool pool) throws Exception {
+        final NameDecoder names = new NameDecoder(messageBytes, pool);
+        int i = 0; // Cursor over messageBytes, nothing gets copied
 
-        messageId = Utils.int16fromByteArray(buffer);
-        buffer = Arrays.copyOfRange(buffer, 2, length);
+        if (messageBytes.length < HEADER_SIZE) {
+            throw new Exception("Message too short: " + messageBytes.length + " bytes");
+        }
+
+        messageId = Utils.int16fromByteArray(messageBytes, i);
+        i += 2;
 
-        options = new MessageOptions(buffer);
-        buffer = Arrays.copyOfRange(buffer, 2, length);
+        options = new MessageOptions(messageBytes, i);
+        i += 2;
 
         if (options.getTC()) {
             throw new TruncatedMessageException();
         }
 
         int qcount, acount, nscount, adcount;
-        qcount = Utils.int16fromByteArray(buffer);
-        buffer = Arrays.copyOfRange(buffer, 2, length);
-        acount = Utils.int16fromByteArray(buffer);
-        buffer = Arrays.copyOfRange(buffer, 2, length);
-        nscount = Utils.int16fromByteArray(buffer);
-        buffer = Arrays.copyOfRange(buffer, 2, length);
-        adcount = Utils.int16fromByteArray(buffer);
-        buffer = Arrays.copyOfRange(buffer, 2, length);
-
-        if (qcount != 1) {
-            throw new Exception("We do not yet support unquestioned queries");
-        }
-
-        question = new DomainName(buffer, messageBytes);
-        buffer = Arrays.copyOfRange(buffer, question.getEncodedLength(), length);
-        questionType = RRType.fromByteArray(buffer);
-        buffer = Arrays.copyOfRange(buffer, 2, length);
-        questionClass = RRClass.fromByteArray(buffer);
-        buffer = Arrays.copyOfRange(buffer, 2, length);
+        qcount = Utils.int16fromByteArray(messageBytes, i);
+        i += 2;
+        acount = Utils.int16fromByteArray(messageBytes, i);
+        i += 2;
+        nscount = Utils.int16fromByteArray(messageBytes, i);
+        i += 2;
+        adcount = Utils.int16fromByteArray(messageBytes, i);
+        i += 2;
+
+        if (qcount > 1) {
+            throw new Exception("We do not yet support several questions");
+        }
+
+        // Many servers send FORMERR and NOTIMP without the question
+        if (qcount == 1) {
+            question = names.decode(i);
+            i = DomainName.skip(messageBytes, i);
+            if (i + 4 > messageBytes.length) { // type + class
+                throw new Exception("Question exceeds the message length");
+            }
+            questionType = RRType.fromByteArray(messageBytes, i);
+            if (questionType == RRType.UNKNOWN) {
+                throw new Exception("Unsupported question type: " + Utils.int16fromByteArray(messageBytes, i));
+            }
+            i += 2;
+            questionClass = RRClass.fromByteArray(messageBytes, i);
+            i += 2;
+        }
+
+        if (lazy) {
+            int[] offsets = new int[acount + nscount + adcount];
+            for (int j = 0; j < offsets.length; j++) {
+                offsets[j] = i;
+                i = ResourceRecord.skip(messageBytes, i);
+            }
+            answers = new LazyRecordList(names, offsets, 0, acount);
+            nameServers = new LazyRecordList(names, offsets, acount, nscount);
+            additionalRecords = new LazyRecordList(names, offsets, acount + nscount, adcount);
+
+            // The OPT record is needed right away for the RCODE
+            for (int j = 0; j < adcount; j++) {
+                int type = DomainName.skip(messageBytes, offsets[acount + nscount + j]);
+                if (Utils.int16fromByteArray(messageBytes, type) == RRType.OPT.getId()) {
+                    setOPT(additionalRecords.get(j));
+                }
+            }
+            return;
+        }
 
         answers = new ArrayList<>(acount);
-        for (int i = 0; i < acount; i++) {
-            ResourceRecord record = ResourceRecord.createResourceRecord(buffer, messageBytes);
-            buffer = Arrays.copyOfRange(buffer, record.getEncodedLength(), length);
+        for (int j = 0; j < acount; j++) {
+            ResourceRecord record = ResourceRecord.createResourceRecord(names, i);
+            i += record.getEncodedLength();
             answers.add(record);
         }
         nameServers = new ArrayList<>(nscount);
-        for (int i = 0; i < nscount; i++) {
-            ResourceRecord record = ResourceRecord.createResourceRecord(buffer, messageBytes);
-            buffer = Arrays.copyOfRange(buffer, record.getEncodedLength(), length);
+        for (int j = 0; j < nscount; j++) {
+            ResourceRecord record = ResourceRecord.createResourceRecord(names, i);
+            i += record.getEncodedLength();
             nameServers.add(record);
         }
         additionalRecords = new ArrayList<>(adcount);
-        for (int i = 0; i < adcount; i++) {
-            ResourceRecord record = ResourceRecord.createResourceRecord(buffer, messageBytes);
-            buffer = Arrays.copyOfRange(buffer, record.getEncodedLength(), length);
+        for (int j = 0; j < adcount; j++) {
+            ResourceRecord record = ResourceRecord.createResourceRecord(names, i);
+            i += record.getEncodedLength();
             additionalRecords.add(record);
+            setOPT(record);
         }
     }
 
+    /**
+     * Serializes the message, with compressed domain names. Use a
+     * {@link MessageEncoder} to write into an existing buffer instead.
+     *
+     * @return the encoded message
+     * @throws IOException if the message does not fit in 65535 bytes
+     */
     public byte[] toByteArray() throws IOException {
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(UDP_SIZE);
+        MessageEncoder encoder = new MessageEncoder();
+
+        try {
+            encoder.encode(this, buffer);
+        } catch (BufferOverflowException ex) {
+            buffer = ByteBuffer.allocate(MAX_SIZE); // Only reachable through TCP
+            try {
+                encoder.encode(this, buffer);
+            } catch (BufferOverflowException ex2) {
+                throw new IOException("Message too long", ex2);
+            }
+        }
 
-        os.write(Utils.int16toByteArray(messageId));
-        os.write(options.toByteArray());
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
 
-        os.write(Utils.int16toByteArray(1)); // qdcount;
-        os.write(Utils.int16toByteArray(answers.size()));
-        os.write(Utils.int16toByteArray(nameServers.size()));
-        os.write(Utils.int16toByteArray(additionalRecords.size()));
+    void encode(MessageEncoder encoder, ByteBuffer out) {
+        out.putShort((short) messageId);
+        out.putShort((short) options.toInt());
 
-        os.write(question.toByteArray());
-        os.write(questionType.toByteArray());
-        os.write(questionClass.toByteArray());
+        out.putShort((short) (question == null ? 0 : 1)); // qdcount
+        out.putShort((short) answers.size());
+        out.putShort((short) nameServers.size());
+        out.putShort((short) additionalRecords.size());
+
+        if (question != null) {
+            encoder.writeName(question, out);
+            out.putShort((short) questionType.getId());
+            out.putShort((short) questionClass.getId());
+        }
 
         for (ResourceRecord record : answers) {
-            os.write(record.toByteArray());
+            record.encode(encoder, out);
         }
         for (ResourceRecord record : nameServers) {
-            os.write(record.toByteArray());
+            record.encode(encoder, out);
         }
         for (ResourceRecord record : additionalRecords) {
-            os.write(record.toByteArray());
+            record.encode(encoder, out);
+        }
+    }
+
+    private void setOPT(ResourceRecord record) throws Exception {
+        if (record instanceof OPTResourceRecord) {
+            if (opt != null) {
+                throw new Exception("More than one OPT Resource Record");
+            }
+            opt = (OPTResourceRecord) record;
+        }
+    }
+
+    /**
+     * Advertises EDNS(0) support with the given UDP payload size, adding an
+     * OPT pseudo-record to the additional section, so that the server does
+     * not need to truncate responses up to that size. Only valid for messages
+     * being built, not for decoded ones.
+     *
+     * @param udpPayloadSize The largest UDP response accepted, or 0 to remove
+     * EDNS(0) from the message
+     */
+    public void setUDPPayloadSize(int udpPayloadSize) {
+        if (opt != null) {
+            additionalRecords.remove(opt);
+            opt = null;
         }
+        if (udpPayloadSize > 0) {
+            opt = new OPTResourceRecord(udpPayloadSize);
+            additionalRecords.add(opt);
+        }
+    }
+
+    /**
+     * @return the UDP payload size advertised through EDNS(0), or 0 if the
+     * message has no OPT record
+     */
+    public int getUDPPayloadSize() {
+        return opt == null ? 0 : opt.getUDPPayloadSize();
+    }
+
+    /**
+     * @return the OPT pseudo-record of the message, or null if it has none
+     */
+    public OPTResourceRecord getOPT() {
+        return opt;
+    }
 
-        return os.toByteArray();
+    /**
+     * @return the response code, including the upper bits carried by the OPT
+     * record if there is one
+     */
+    public int getRCODE() {
+        return (opt == null ? 0 : opt.getExtendedRCODE() << 4) | options.getRCODE();
     }
 
     /**
@@ -174,7 +322,7 @@ public class Message {
     }
 
     /**
-     * @return the question
+     * @return the question, or null if the message did not have one
      */
     public DomainName getQuestion() {
         return question;
@@ -221,6 +369,58 @@ public class Message {
     	}
     }
 
+    /**
+     * Read-only section of a lazily decoded message. Records are decoded
+     * from the message bytes the first time they are requested and then kept.
+     *
+     * A message can be handed to other threads after it is built (coalesced
+     * queries share the same answer), so the list is safe to read from
+     * several of them: a record is decoded once, under the lock of the
+     * {@link NameDecoder} the three sections share, and published through an
+     * {@link AtomicReferenceArray}.
+     */
+    static private class LazyRecordList extends AbstractList<ResourceRecord> {
+
+        private final NameDecoder names;
+        private final int[] offsets;
+        private final int first;
+        private final AtomicReferenceArray<ResourceRecord> records;
+
+        LazyRecordList(final NameDecoder names, final int[] offsets, int first, int count) {
+            this.names = names;
+            this.offsets = offsets;
+            this.first = first;
+            this.records = new AtomicReferenceArray<>(count);
+        }
+
+        @Override
+        public ResourceRecord get(int index) {
+            Objects.checkIndex(index, records.length());
+
+            ResourceRecord record = records.get(index);
+            if (record != null) {
+                return record;
+            }
+            synchronized (names) { // NameDecoder is not thread-safe
+                record = records.get(index);
+                if (record == null) {
+                    try {
+                        record = ResourceRecord.createResourceRecord(names, offsets[first + index]);
+                    } catch (Exception ex) {
+                        throw new IllegalStateException("Cannot decode resource record " + index, ex);
+                    }
+                    records.set(index, record);
+                }
+            }
+            return record;
+        }
+
+        @Override
+        public int size() {
+            return records.length();
+        }
+    }
+
     static private class MessageOptions {
 
         public MessageOptions() {
@@ -228,7 +428,11 @@ public class Message {
         }
 
         public MessageOptions(final byte[] options_bytes) {
-            final int options = Utils.int16fromByteArray(options_bytes);
+            this(options_bytes, 0);
+        }
+
+        public MessageOptions(final byte[] message, final int offset) {
+            final int options = Utils.int16fromByteArray(message, offset);
 
             RCODE = options & 0x000F;
             Z = (options & 0x0070) >> 4;
@@ -241,10 +445,12 @@ public class Message {
         }
 
         byte[] toByteArray() {
-            final int options = RCODE | Z << 4 | RA << 7 | RD << 8 | TC << 9
-                    | AA << 10 | OPCODE << 11 | QR << 15;
+            return Utils.int16toByteArray(toInt());
+        }
 
-            return Utils.int16toByteArray(options);
+        int toInt() {
+            return RCODE | Z << 4 | RA << 7 | RD << 8 | TC << 9
+                    | AA << 10 | OPCODE << 11 | QR << 15;
         }
 
         private int QR;
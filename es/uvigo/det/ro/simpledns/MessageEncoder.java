@@ -0,0 +1,180 @@
+package es.uvigo.det.ro.simpledns;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Serializes messages straight into a ByteBuffer, compressing domain names
+ * as described in RFC 1035, section 4.1.4.
+ *
+ * The compression table only stores the offsets where names (and their
+ * suffixes) were written, and candidates are compared against the bytes
+ * already in the buffer, so encoding does not allocate once the table has
+ * grown to the size of the largest message. An encoder can be reused for
+ * any number of messages, but not by several threads at the same time.
+ *
+ * @author Guillermo Barreiro
+ */
+public class MessageEncoder {
+
+    private static final int MAX_POINTER = 0x3fff; // Pointers have 14 bits
+    private static final int MAX_HOPS = 128; // A name cannot have more labels than this
+
+    private ByteBuffer out;
+    private int base; // Position of the start of the message in out
+    private int[] offsets = new int[64]; // Compression table: start of every name suffix written
+    private int count;
+
+    /**
+     * Writes the complete message at the current position of the buffer
+     *
+     * @param message The message to serialize
+     * @param buffer Where to write it. Its position is advanced past the
+     * message
+     * @return the number of bytes written
+     * @throws java.nio.BufferOverflowException if the message does not fit in
+     * the remaining space of the buffer
+     */
+    public int encode(Message message, ByteBuffer buffer) {
+        out = buffer;
+        base = buffer.position();
+        count = 0;
+
+        try {
+            message.encode(this, buffer);
+        } finally {
+            out = null;
+        }
+
+        return buffer.position() - base;
+    }
+
+    /**
+     * Writes a single record at the current position of the buffer, as if it
+     * were the first thing in a message, so its names only point inside it
+     *
+     * @param record The record to serialize
+     * @param buffer Where to write it. Its position is advanced past the
+     * record
+     * @return the number of bytes written
+     * @throws java.nio.BufferOverflowException if the record does not fit in
+     * the remaining space of the buffer
+     */
+    int encode(ResourceRecord record, ByteBuffer buffer) {
+        out = buffer;
+        base = buffer.position();
+        count = 0;
+
+        try {
+            record.encode(this, buffer);
+        } finally {
+            out = null;
+        }
+
+        return buffer.position() - base;
+    }
+
+    /**
+     * Writes a domain name, replacing its longest already written suffix with
+     * a pointer
+     *
+     * @param name The name to write
+     * @param buffer The buffer being encoded
+     */
+    void writeName(DomainName name, ByteBuffer buffer) {
+        final byte[] wire = name.getWire();
+
+        int i = name.getWireOffset();
+        while (wire[i] != 0) {
+            int target = find(wire, i);
+            if (target >= 0) {
+                buffer.putShort((short) (0xc000 | target));
+                return;
+            }
+
+            int position = buffer.position() - base;
+            if (position <= MAX_POINTER) {
+                add(position);
+            }
+
+            buffer.put(wire, i, wire[i] + 1);
+            i += wire[i] + 1;
+        }
+        buffer.put((byte) 0); // Final label
+    }
+
+    /**
+     * Writes a domain name without compression, for the RRData fields that
+     * must not be compressed (RFC 3597, section 4). Later names do not point
+     * into it either.
+     *
+     * @param name The name to write
+     * @param buffer The buffer being encoded
+     */
+    void writeUncompressedName(DomainName name, ByteBuffer buffer) {
+        buffer.put(name.getWire(), name.getWireOffset(), name.getEncodedLength());
+    }
+
+    /**
+     * Writes a 16 bit placeholder for a length and returns where it is, so it
+     * can be filled with {@link #endLength(int, ByteBuffer)}
+     */
+    int startLength(ByteBuffer buffer) {
+        int position = buffer.position();
+        buffer.putShort((short) 0);
+        return position;
+    }
+
+    void endLength(int position, ByteBuffer buffer) {
+        buffer.putShort(position, (short) (buffer.position() - position - 2));
+    }
+
+    private void add(int position) {
+        if (count == offsets.length) {
+            int[] bigger = new int[offsets.length * 2];
+            System.arraycopy(offsets, 0, bigger, 0, count);
+            offsets = bigger;
+        }
+        offsets[count++] = position;
+    }
+
+    private int find(byte[] wire, int first) {
+        for (int j = 0; j < count; j++) {
+            if (matches(wire, first, offsets[j])) {
+                return offsets[j];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether the labels in wire starting at first are the ones
+     * encoded at offset, following the pointers already written. Both are
+     * lower-cased, so they can be compared byte by byte.
+     */
+    private boolean matches(byte[] wire, int first, int offset) {
+        int i = base + offset;
+        int hops = 0;
+
+        for (int k = first; k < wire.length; k++, i++) {
+            int size = out.get(i) & 0xff;
+            while ((size & 0xc0) == 0xc0) {
+                if (++hops > MAX_HOPS) {
+                    return false;
+                }
+                i = base + (((size & 0x3f) << 8) | (out.get(i + 1) & 0xff));
+                size = out.get(i) & 0xff;
+            }
+
+            if (size != wire[k]) {
+                return false;
+            }
+            for (int c = 0; c < size; c++) {
+                if (out.get(++i) != wire[++k]) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+}
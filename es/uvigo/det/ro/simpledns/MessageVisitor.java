@@ -0,0 +1,97 @@
+package es.uvigo.det.ro.simpledns;
+
+/**
+ * Streaming parser: walks the records of a message and pushes them to a
+ * {@link RecordHandler} without building any object, so scanning a response
+ * for a few records does not allocate. The handler can stop the walk as soon
+ * as it has found what it needs.
+ *
+ * @author Guillermo Barreiro
+ */
+public final class MessageVisitor {
+
+    public enum Section {
+        ANSWER, AUTHORITY, ADDITIONAL
+    }
+
+    private static final int HEADER_SIZE = 12;
+    private static final Section[] SECTIONS = Section.values();
+
+    private MessageVisitor() {
+    }
+
+    /**
+     * Walks every record of the message after the question section
+     *
+     * @param message The complete message
+     * @param handler Where to push the records
+     * @return false if the handler stopped the walk, true otherwise
+     * @throws Exception in case the message is malformed
+     */
+    public static boolean visit(final byte[] message, final RecordHandler handler) throws Exception {
+        if (message.length < HEADER_SIZE) {
+            throw new Exception("Message too short: " + message.length + " bytes");
+        }
+
+        int i = HEADER_SIZE;
+        final int qcount = Utils.int16fromByteArray(message, 4);
+        for (int j = 0; j < qcount; j++) {
+            i = DomainName.skip(message, i) + 4; // type + class
+        }
+
+        for (int s = 0; s < SECTIONS.length; s++) {
+            final int count = Utils.int16fromByteArray(message, 6 + 2 * s);
+            for (int j = 0; j < count; j++) {
+                final int nameOffset = i;
+                if (i >= message.length) {
+                    throw new Exception("Resource Record exceeds the message length");
+                }
+                DomainName.wireLength(message, i, message); // Validates it for the handler
+                i = DomainName.skip(message, i);
+
+                if (i + 10 > message.length) { // type + class + ttl + rdlength
+                    throw new Exception("Resource Record exceeds the message length");
+                }
+                final int type = Utils.int16fromByteArray(message, i);
+                final int rrclass = Utils.int16fromByteArray(message, i + 2);
+                final int ttl = Utils.int32fromByteArray(message, i + 4);
+                final int rdLength = Utils.int16fromByteArray(message, i + 8);
+                i += 10;
+                if (i + rdLength > message.length) {
+                    throw new Exception("RRData exceeds the message length");
+                }
+
+                if (!handler.record(SECTIONS[s], message, nameOffset, type, rrclass, ttl, i, rdLength)) {
+                    return false;
+                }
+                i += rdLength;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Compares two names of the same message in place
+     *
+     * @param message The complete message
+     * @param offset Position of the first name
+     * @param otherOffset Position of the second name
+     * @return whether both are the same name, ignoring case
+     * @throws IllegalArgumentException in case any of them is malformed
+     */
+    public static boolean sameName(final byte[] message, final int offset, final int otherOffset) {
+        DomainName.wireLength(message, offset, message);
+        DomainName.wireLength(message, otherOffset, message);
+
+        return offset == otherOffset || DomainName.sameName(message, offset, otherOffset);
+    }
+
+    /**
+     * @param message The complete message
+     * @return whether the TC bit is set
+     */
+    public static boolean isTruncated(final byte[] message) {
+        return (message[2] & 0x02) != 0;
+    }
+}
@@ -19,6 +19,7 @@ package es.uvigo.det.ro.simpledns;
 import static es.uvigo.det.ro.simpledns.RRType.NS;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,16 +36,21 @@ public class NSResourceRecord extends ResourceRecord {
         this.ns = ns;
     }
 
-    protected NSResourceRecord(ResourceRecord decoded, final byte[] message) {
+    protected NSResourceRecord(ResourceRecord decoded, final NameDecoder names) {
         super(decoded);
 
-        ns = new DomainName(getRRData(), message);
+        ns = names.decode(getRDOffset());
     }
 
     public final DomainName getNS() {
         return ns;
     }
     
+    @Override
+    protected void encodeRData(MessageEncoder encoder, ByteBuffer out) {
+        encoder.writeName(ns, out);
+    }
+
     @Override
     public byte[] toByteArray() {
         ByteArrayOutputStream os = new ByteArrayOutputStream();
@@ -0,0 +1,119 @@
+package es.uvigo.det.ro.simpledns;
+
+/**
+ * Decodes the domain names found in a single message, going through a
+ * {@link DomainNamePool} when the message was parsed with one.
+ *
+ * Every decoded name is remembered by its offset, so the many compression
+ * pointers that usually lead to the same suffix (the zone in a referral, the
+ * NS targets reused as glue owners) are resolved only once. A name that is
+ * just a pointer to an already decoded one is returned as is.
+ *
+ * @author Guillermo Barreiro
+ */
+public final class NameDecoder {
+
+    private final byte[] message;
+    private final DomainNamePool pool;
+    private int[] offsets = new int[16]; // Open addressing table, offset + 1 (0 is empty)
+    private DomainName[] names = new DomainName[16];
+    private int count;
+
+    NameDecoder(final byte[] message, final DomainNamePool pool) {
+        this.message = message;
+        this.pool = pool;
+    }
+
+    /**
+     * @return the complete message the names are decoded from
+     */
+    public byte[] getMessage() {
+        return message;
+    }
+
+    /**
+     * Decodes the name at the given position of the message
+     *
+     * @param offset The position of the name inside the message
+     * @return the name, possibly shared with other records
+     * @throws IllegalArgumentException if the name is malformed, does not fit
+     * in the message or has compression pointers that do not go backwards
+     */
+    public DomainName decode(final int offset) {
+        DomainName name = get(offset);
+        if (name != null) {
+            return name;
+        }
+
+        // Labels stored in place, up to the end or the first pointer
+        int i = offset;
+        int size;
+        while (true) {
+            if (i >= message.length) {
+                throw new IllegalArgumentException("Domain name exceeds the message length");
+            }
+            size = (message[i] & 0xff);
+            if (size == 0 || (size & 0xc0) == 0xc0) {
+                break;
+            }
+            DomainName.checkLabel(size);
+            i += size + 1;
+        }
+
+        if (size == 0 || pool != null) {
+            name = pool == null ? new DomainName(message, offset) : pool.decode(message, offset);
+        } else {
+            if (i + 1 >= message.length) {
+                throw new IllegalArgumentException("Domain name exceeds the message length");
+            }
+            int pointer = (message[i + 1] & 0xff) + ((size & 0x3f) << 8);
+            if (pointer >= offset) {
+                throw new IllegalArgumentException("Compression pointer does not go backwards");
+            }
+
+            DomainName suffix = get(pointer);
+            if (suffix == null) {
+                suffix = new DomainName(message, pointer); // Follows any further pointers itself
+                put(pointer, suffix);
+            }
+            name = i == offset ? suffix : new DomainName(message, offset, i - offset, suffix);
+        }
+
+        put(offset, name);
+        return name;
+    }
+
+    private DomainName get(int offset) {
+        final int mask = offsets.length - 1;
+        for (int slot = (offset * 0x9e3779b1 >>> 16) & mask; offsets[slot] != 0; slot = (slot + 1) & mask) {
+            if (offsets[slot] == offset + 1) {
+                return names[slot];
+            }
+        }
+        return null;
+    }
+
+    private void put(int offset, DomainName name) {
+        if (2 * (count + 1) > offsets.length) {
+            int[] oldOffsets = offsets;
+            DomainName[] oldNames = names;
+            offsets = new int[oldOffsets.length * 2];
+            names = new DomainName[oldNames.length * 2];
+            count = 0;
+            for (int j = 0; j < oldOffsets.length; j++) {
+                if (oldOffsets[j] != 0) {
+                    put(oldOffsets[j] - 1, oldNames[j]);
+                }
+            }
+        }
+
+        final int mask = offsets.length - 1;
+        int slot = (offset * 0x9e3779b1 >>> 16) & mask;
+        while (offsets[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        offsets[slot] = offset + 1;
+        names[slot] = name;
+        count++;
+    }
+}
@@ -0,0 +1,68 @@
+package es.uvigo.det.ro.simpledns;
+
+import static es.uvigo.det.ro.simpledns.RRType.OPT;
+
+/**
+ * The EDNS(0) pseudo-record described in RFC 6891. Its class holds the UDP
+ * payload size the sender can receive, and its TTL holds the upper bits of
+ * the RCODE, the EDNS version and the DO flag.
+ *
+ * @author Guillermo Barreiro
+ */
+public class OPTResourceRecord extends ResourceRecord {
+
+    /**
+     * Largest size that avoids IP fragmentation on common paths, as agreed
+     * for the DNS flag day 2020
+     */
+    public static final int DEFAULT_UDP_PAYLOAD_SIZE = 1232;
+    public static final int MIN_UDP_PAYLOAD_SIZE = 512;
+
+    private static final int DO_FLAG = 0x8000;
+
+    /**
+     * Creates the OPT record to advertise in a query
+     *
+     * @param udpPayloadSize The largest UDP response the sender can receive;
+     * values below 512 are treated as 512
+     */
+    public OPTResourceRecord(int udpPayloadSize) {
+        super(new DomainName(""), OPT, Math.max(udpPayloadSize, MIN_UDP_PAYLOAD_SIZE), 0, new byte[0]);
+    }
+
+    protected OPTResourceRecord(ResourceRecord decoded) throws Exception {
+        super(decoded);
+
+        if (!getDomain().isRoot()) {
+            throw new Exception("OPT Resource Records must be owned by the root");
+        }
+    }
+
+    /**
+     * @return the largest UDP message the sender can receive
+     */
+    public int getUDPPayloadSize() {
+        return Math.max(getClassCode(), MIN_UDP_PAYLOAD_SIZE);
+    }
+
+    /**
+     * @return the upper 8 bits of the 12 bit RCODE
+     */
+    public int getExtendedRCODE() {
+        return getTTL() >>> 24;
+    }
+
+    /**
+     * @return the EDNS version, 0 for EDNS(0)
+     */
+    public int getVersion() {
+        return (getTTL() >> 16) & 0xff;
+    }
+
+    /**
+     * @return whether the sender wants DNSSEC records
+     */
+    public boolean isDNSSECOK() {
+        return (getTTL() & DO_FLAG) != 0;
+    }
+}
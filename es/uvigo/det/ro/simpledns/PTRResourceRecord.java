@@ -0,0 +1,31 @@
+package es.uvigo.det.ro.simpledns;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Modela un Resource Record de tipo PTR (RFC 1035, 3.3.12)
+ * @author Guillermo Barreiro
+ *
+ */
+public class PTRResourceRecord extends ResourceRecord {
+	private final DomainName ptr;
+
+	protected PTRResourceRecord(ResourceRecord decoded, final NameDecoder names) {
+		super(decoded);
+
+		ptr = names.decode(getRDOffset());
+	}
+
+	/**
+	 * Nombre al que apunta el registro (p. ej. el de la máquina con una dirección, en in-addr.arpa)
+	 */
+	public DomainName getPTR() {
+		return ptr;
+	}
+
+	@Override
+	protected void encodeRData(MessageEncoder encoder, ByteBuffer out) {
+		encoder.writeName(ptr, out);
+	}
+
+}
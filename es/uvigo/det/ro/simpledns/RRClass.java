@@ -23,27 +23,58 @@ package es.uvigo.det.ro.simpledns;
 public enum RRClass {
     IN(1), // the Internet
     CH(3), // the CHAOS class
-    HS(4); // Hesiod      
+    HS(4), // Hesiod
+    NONE(254), // used in dynamic updates
+    ANY(255), // any class, only valid in questions
+    UNKNOWN(-1); // any other value, see ResourceRecord.getClassCode()
 
-    static RRClass fromByteArray(final byte[] bytes) throws Exception {
-        final int val = Utils.int16fromByteArray(bytes);
+    private static final RRClass[] BY_ID;
 
-        for (RRClass id : values()) {
-            if (val == id.id) {
-                return id;
+    static {
+        int max = 0;
+        for (RRClass rrclass : values()) {
+            max = Math.max(max, rrclass.id);
+        }
+        BY_ID = new RRClass[max + 1];
+        for (RRClass rrclass : values()) {
+            if (rrclass.id >= 0) {
+                BY_ID[rrclass.id] = rrclass;
             }
         }
+    }
+
+    /**
+     * Looks up a class by its numeric value in constant time
+     *
+     * @param id the value used on the wire
+     * @return the class, or UNKNOWN if this library does not know it
+     */
+    public static RRClass fromId(int id) {
+        RRClass rrclass = (id >= 0 && id < BY_ID.length) ? BY_ID[id] : null;
+        return rrclass != null ? rrclass : UNKNOWN;
+    }
 
-        throw (new Exception("Unsupported RRClass: " + val));
+    static RRClass fromByteArray(final byte[] bytes) {
+        return fromByteArray(bytes, 0);
+    }
+
+    static RRClass fromByteArray(final byte[] bytes, int offset) {
+        return fromId(Utils.int16fromByteArray(bytes, offset));
     }
 
 
     private final int id;
-    // Hesiod
     
     private RRClass(int id) {
         this.id = id;
     }
+    /**
+     * @return the numeric value used on the wire
+     */
+    public int getId() {
+        return id;
+    }
+
     public byte[] toByteArray() {
         return Utils.int16toByteArray(id);
     }
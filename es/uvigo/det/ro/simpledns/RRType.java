@@ -25,27 +25,68 @@ public enum RRType {
     HINFO(13), // host information
     MX(15), // mail exchange
     TXT(16), // text strings
-    AAAA(28); // an IPv6 host address*/
-
-    static RRType fromByteArray(final byte[] bytes) throws Exception {
-        final int val = Utils.int16fromByteArray(bytes);
-        
-        for (RRType id : values()) {
-            if (val == id.id) {
-                return id;
+    AAAA(28), // an IPv6 host address
+    SRV(33), // a service location
+    DNAME(39), // a redirection of a subtree
+    OPT(41), // the EDNS(0) pseudo-record
+    DS(43), // a delegation signer
+    RRSIG(46), // a DNSSEC signature
+    NSEC(47), // a DNSSEC denial of existence
+    DNSKEY(48), // a DNSSEC public key
+    NSEC3(50), // a hashed DNSSEC denial of existence
+    SVCB(64), // a service binding
+    HTTPS(65), // a service binding for HTTPS
+    ANY(255), // any type, only valid in questions
+    CAA(257), // a certification authority restriction
+    UNKNOWN(-1); // any other type, see ResourceRecord.getTypeCode()
+
+    private static final RRType[] BY_ID;
+
+    static {
+        int max = 0;
+        for (RRType type : values()) {
+            max = Math.max(max, type.id);
+        }
+        BY_ID = new RRType[max + 1];
+        for (RRType type : values()) {
+            if (type.id >= 0) {
+                BY_ID[type.id] = type;
             }
         }
+    }
+
+    /**
+     * Looks up a type by its numeric value in constant time
+     *
+     * @param id the value used on the wire
+     * @return the type, or UNKNOWN if this library does not know it
+     */
+    public static RRType fromId(int id) {
+        RRType type = (id >= 0 && id < BY_ID.length) ? BY_ID[id] : null;
+        return type != null ? type : UNKNOWN;
+    }
+
+    static RRType fromByteArray(final byte[] bytes) {
+        return fromByteArray(bytes, 0);
+    }
 
-        throw (new Exception("Unsupported RRType: " + val));
+    static RRType fromByteArray(final byte[] bytes, int offset) {
+        return fromId(Utils.int16fromByteArray(bytes, offset));
     }
 
 
     private final int id;
-    // an IPv6 host address*/
     
     private RRType(int id) {
         this.id = id;
     }
+    /**
+     * @return the numeric value used on the wire
+     */
+    public int getId() {
+        return id;
+    }
+
     public byte[] toByteArray() {
         return Utils.int16toByteArray(id);
     }
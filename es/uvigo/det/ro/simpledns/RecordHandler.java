@@ -0,0 +1,30 @@
+package es.uvigo.det.ro.simpledns;
+
+/**
+ * Receives the resource records of a message as {@link MessageVisitor} finds
+ * them, straight from the message bytes. Nothing is decoded unless the
+ * handler does it.
+ *
+ * @author Guillermo Barreiro
+ */
+@FunctionalInterface
+public interface RecordHandler {
+
+    /**
+     * Called once for every record, in the order they appear
+     *
+     * @param section The section holding the record
+     * @param message The complete message
+     * @param nameOffset Position of the owner name, already validated, so it
+     * can be passed to {@link MessageVisitor#sameName(byte[], int, int)} or
+     * {@link DomainName#DomainName(byte[], int)}
+     * @param type The numeric type, see {@link RRType#fromId(int)}
+     * @param rrclass The numeric class, see {@link RRClass#fromId(int)}
+     * @param ttl The TTL in seconds
+     * @param rdOffset Position of the RRData
+     * @param rdLength Size of the RRData, which is known to fit in the message
+     * @return true to go on with the next record, false to stop
+     */
+    boolean record(MessageVisitor.Section section, byte[] message, int nameOffset,
+            int type, int rrclass, int ttl, int rdOffset, int rdLength);
+}
@@ -18,6 +18,8 @@ package es.uvigo.det.ro.simpledns;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -29,86 +31,202 @@ import java.util.logging.Logger;
 public class ResourceRecord {
 
     /**
-     * Creates a new ResourceRecord based on a byte array
+     * Creates a new ResourceRecord decoding it in place from a message
      *
-     * @param rrecord A byte array with the serialized RR
      * @param message A byte array containing the complete message
+     * @param offset The position of the RR inside the message
      * @return A ResourceRecord of the appropriate type
      * @throws Exception in case the bytes cannot be fully parsed
      */
-    static public ResourceRecord createResourceRecord(final byte[] rrecord, final byte[] message) throws Exception {
-        ResourceRecord temp = new ResourceRecord(rrecord, message);
-
-        switch (temp.getRRType()) {
-            case A:
-                return new AResourceRecord(temp);
-            case AAAA:
-                return new AAAAResourceRecord(temp);
-            case NS:
-                return new NSResourceRecord(temp, message);
-            case CNAME:
-            	return new CNAMEResourceRecord(temp, message);
-            case MX:
-            	return new MXResourceRecord(temp,message);
-            case TXT:
-            	return new TXTResourceRecord(temp,message);
-            default:
-                return temp;
+    static public ResourceRecord createResourceRecord(final byte[] message, final int offset) throws Exception {
+        return createResourceRecord(new NameDecoder(message, null), offset);
+    }
+
+    /**
+     * Creates a new ResourceRecord decoding it in place from a message
+     *
+     * @param names The decoder for the names of the message holding the RR
+     * @param offset The position of the RR inside the message
+     * @return A ResourceRecord of the appropriate type
+     * @throws Exception in case the bytes cannot be fully parsed
+     */
+    static public ResourceRecord createResourceRecord(final NameDecoder names, final int offset) throws Exception {
+        ResourceRecord temp = new ResourceRecord(names, offset);
+
+        final ResourceRecordCodec[] table = codecs;
+        final int code = temp.getTypeCode();
+        ResourceRecordCodec codec = code < table.length ? table[code] : null;
+
+        // Types without a codec are kept undecoded, with their raw RRData
+        return codec == null ? temp : codec.decode(temp, names);
+    }
+
+    private static volatile ResourceRecordCodec[] codecs = new ResourceRecordCodec[0];
+
+    static {
+        registerCodec(RRType.A, (decoded, names) -> new AResourceRecord(decoded));
+        registerCodec(RRType.AAAA, (decoded, names) -> new AAAAResourceRecord(decoded));
+        registerCodec(RRType.NS, NSResourceRecord::new);
+        registerCodec(RRType.CNAME, CNAMEResourceRecord::new);
+        registerCodec(RRType.SOA, SOAResourceRecord::new);
+        registerCodec(RRType.PTR, PTRResourceRecord::new);
+        registerCodec(RRType.DNAME, DNAMEResourceRecord::new);
+        registerCodec(RRType.MX, MXResourceRecord::new);
+        registerCodec(RRType.TXT, TXTResourceRecord::new);
+        registerCodec(RRType.SRV, SRVResourceRecord::new);
+        registerCodec(RRType.OPT, (decoded, names) -> new OPTResourceRecord(decoded));
+    }
+
+    /**
+     * Sets the codec used to decode the records of a type, replacing the
+     * previous one
+     *
+     * @param type The type, which cannot be UNKNOWN
+     * @param codec The codec, or null to keep those records undecoded
+     */
+    public static void registerCodec(RRType type, ResourceRecordCodec codec) {
+        if (type == RRType.UNKNOWN) {
+            throw new IllegalArgumentException("Cannot register a codec for unknown types");
+        }
+        registerCodec(type.getId(), codec);
+    }
+
+    /**
+     * Sets the codec used to decode the records of a numeric type, so types
+     * not listed in RRType can also be supported
+     *
+     * @param typeCode The value of the type on the wire
+     * @param codec The codec, or null to keep those records undecoded
+     */
+    public static synchronized void registerCodec(int typeCode, ResourceRecordCodec codec) {
+        if (typeCode < 0 || typeCode > 0xffff) {
+            throw new IllegalArgumentException("Invalid type: " + typeCode);
+        }
+
+        // Copy on write, so lookups while decoding need no locking
+        ResourceRecordCodec[] table = codecs;
+        if (typeCode >= table.length) {
+            table = Arrays.copyOf(table, typeCode + 1);
+        } else {
+            table = table.clone();
+        }
+        table[typeCode] = codec;
+        codecs = table;
+    }
+
+    /**
+     * Finds where a serialized RR ends without decoding it
+     *
+     * @param message A byte array containing the complete message
+     * @param offset The position of the RR inside the message
+     * @return The position of the first byte after the RR
+     * @throws Exception in case the RR does not fit in the message
+     */
+    static int skip(final byte[] message, final int offset) throws Exception {
+        int i = DomainName.skip(message, offset);
+
+        if (i + 10 > message.length) { // type + class + ttl + rdlength
+            throw new Exception("Resource Record exceeds the message length");
         }
+        i += 10 + Utils.int16fromByteArray(message, i + 8);
+        if (i > message.length) {
+            throw new Exception("RRData exceeds the message length");
+        }
+
+        return i;
     }
 
     private final DomainName domain;
     private final RRType rrtype;
     private final RRClass rrclass;
+    private final int typeCode; // Kept apart, so unknown types and classes survive
+    private final int classCode;
     private final int ttl;
     private final int rdlength;
-    private final byte[] rrdata;
+    private final byte[] message; // Holds the RRData, either the whole decoded message or just the RRData
+    private final int rdoffset;
+    private final int encoded_length;
+    private byte[] rrdata; // Only copied out of message when requested
 
     protected ResourceRecord(DomainName domain, RRType type, int ttl, final byte[] rrdata) {
+        this(domain, type, RRClass.IN.getId(), ttl, rrdata);
+    }
+
+    /**
+     * Builds a record with a numeric class, for pseudo-records such as OPT that
+     * use the class field for something else
+     */
+    protected ResourceRecord(DomainName domain, RRType type, int classCode, int ttl, final byte[] rrdata) {
         this.domain = domain;
         this.rrtype = type;
-        this.rrclass = RRClass.IN;
+        this.rrclass = RRClass.fromId(classCode);
+        this.typeCode = type.getId();
+        this.classCode = classCode;
         this.ttl = ttl;
         this.rdlength = rrdata.length;
+        this.message = rrdata;
+        this.rdoffset = 0;
+        this.encoded_length = commonSize() + rdlength;
         this.rrdata = rrdata;
     }
 
-    protected ResourceRecord(final byte[] record, final byte[] message) throws Exception {
-        byte[] buffer = record;
+    protected ResourceRecord(final NameDecoder names, final int offset) throws Exception {
+        final byte[] message = names.getMessage();
+        int i = offset;
+
+        domain = names.decode(i);
+        i = DomainName.skip(message, i);
 
-        domain = new DomainName(record, message);
-        buffer = Arrays.copyOfRange(buffer, domain.getEncodedLength(), record.length);
+        if (i + 10 > message.length) { // type + class + ttl + rdlength
+            throw new Exception("Resource Record exceeds the message length");
+        }
+
+        typeCode = Utils.int16fromByteArray(message, i);
+        rrtype = RRType.fromId(typeCode);
+        i += 2;
 
-        rrtype = RRType.fromByteArray(buffer);
-        buffer = Arrays.copyOfRange(buffer, 2, record.length);
+        classCode = Utils.int16fromByteArray(message, i);
+        rrclass = RRClass.fromId(classCode);
+        i += 2;
 
-        rrclass = RRClass.fromByteArray(buffer);
-        buffer = Arrays.copyOfRange(buffer, 2, record.length);
+        ttl = Utils.int32fromByteArray(message, i);
+        i += 4;
 
-        ttl = Utils.int32fromByteArray(buffer);
-        buffer = Arrays.copyOfRange(buffer, 4, record.length);
+        rdlength = Utils.int16fromByteArray(message, i);
+        i += 2;
 
-        rdlength = Utils.int16fromByteArray(buffer);
+        if (i + rdlength > message.length) {
+            throw new Exception("RRData exceeds the message length");
+        }
 
-        rrdata = Arrays.copyOfRange(buffer, 2, 2 + rdlength);
+        this.message = message;
+        this.rdoffset = i;
+        this.encoded_length = i + rdlength - offset;
+        this.rrdata = null;
     }
 
     protected ResourceRecord(ResourceRecord copy) {
         this.domain = copy.domain;
         this.rrtype = copy.rrtype;
         this.rrclass = copy.rrclass;
+        this.typeCode = copy.typeCode;
+        this.classCode = copy.classCode;
         this.ttl = copy.ttl;
         this.rdlength = copy.rdlength;
+        this.message = copy.message;
+        this.rdoffset = copy.rdoffset;
+        this.encoded_length = copy.encoded_length;
         this.rrdata = copy.rrdata;
     }
 
     /**
-     * Required size to serialize the Resource Record
+     * Required size to serialize the Resource Record. For decoded records it
+     * is the size they took in their message.
      *
      * @return the number of bytes needed
      */
     public int getEncodedLength() {
-        return commonSize() + getRDLength();
+        return encoded_length;
     }
 
     protected byte[] toByteArray() {
@@ -116,8 +234,8 @@ public class ResourceRecord {
 
         try {
             os.write(domain.toByteArray());
-            os.write(rrtype.toByteArray());
-            os.write(rrclass.toByteArray());
+            os.write(Utils.int16toByteArray(typeCode));
+            os.write(Utils.int16toByteArray(classCode));
             os.write(Utils.int32toByteArray(ttl));
             os.write(Utils.int16toByteArray(rdlength));
         } catch (IOException ex) {
@@ -129,6 +247,63 @@ public class ResourceRecord {
         return os.toByteArray();
     }
 
+    /**
+     * Serializes the RR through an encoder, so the names it contains can be
+     * compressed
+     */
+    final void encode(MessageEncoder encoder, ByteBuffer out) {
+        encoder.writeName(domain, out);
+        out.putShort((short) typeCode);
+        out.putShort((short) classCode);
+        out.putInt(ttl);
+
+        int length = encoder.startLength(out);
+        encodeRData(encoder, out);
+        encoder.endLength(length, out);
+    }
+
+    /**
+     * Writes the RRData. Subclasses whose RRData holds domain names must
+     * override it, as the original bytes may contain pointers into the
+     * message they were decoded from.
+     *
+     * @param encoder The encoder in charge of the message
+     * @param out The buffer to write to
+     */
+    protected void encodeRData(MessageEncoder encoder, ByteBuffer out) {
+        out.put(message, rdoffset, rdlength);
+    }
+
+    /**
+     * Copies the record with another TTL. The copy holds its RRData in an
+     * array of its own, so keeping it (in a cache, for instance) does not keep
+     * alive the whole message this record was decoded from.
+     *
+     * @param ttl The TTL of the copy, in seconds
+     * @return a record of the same class as the one the codecs would decode
+     */
+    public ResourceRecord copy(int ttl) {
+        MessageEncoder encoder = new MessageEncoder();
+        // Names in the RRData may take more space once uncompressed
+        ByteBuffer buffer = ByteBuffer.allocate(commonSize() + rdlength + 256);
+        while (true) {
+            try {
+                encoder.encode(this, buffer);
+                break;
+            } catch (BufferOverflowException ex) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+        }
+        buffer.putInt(domain.getEncodedLength() + 4, ttl); // After the name, type and class
+
+        try {
+            return createResourceRecord(Arrays.copyOf(buffer.array(), buffer.position()), 0);
+        } catch (Exception ex) {
+            // The codec accepted these same bytes when the record was decoded
+            throw new IllegalStateException("Cannot decode a copy of the record", ex);
+        }
+    }
+
     protected final int commonSize() {
         return domain.getEncodedLength() + 2 + 2 + 4 + 2; // type + class + ttl + rdlength
     }
@@ -151,6 +326,16 @@ public class ResourceRecord {
         return rrtype;
     }
 
+    /**
+     * The numeric type of the ResourceRecord, also available when
+     * {@link #getRRType()} is UNKNOWN
+     *
+     * @return
+     */
+    public final int getTypeCode() {
+        return typeCode;
+    }
+
     /**
      * The class of the Resource Record
      *
@@ -160,6 +345,16 @@ public class ResourceRecord {
         return rrclass;
     }
 
+    /**
+     * The numeric class of the Resource Record, also available when
+     * {@link #getRRClass()} is UNKNOWN
+     *
+     * @return
+     */
+    public final int getClassCode() {
+        return classCode;
+    }
+
     /**
      * The TTL (in seconds) of the ResourceRecord. Note that this field is not
      * updated by this class. Care must be taken to update it if it is to be
@@ -187,6 +382,19 @@ public class ResourceRecord {
      * @return
      */
     public final byte[] getRRData() {
+        if (rrdata == null) {
+            rrdata = Arrays.copyOfRange(message, rdoffset, rdoffset + rdlength);
+        }
         return rrdata;
     }
+
+    /**
+     * Position of the RRData inside the decoded message, so subclasses and
+     * codecs can decode it in place
+     *
+     * @return the offset of the first byte of the RRData
+     */
+    public final int getRDOffset() {
+        return rdoffset;
+    }
 }
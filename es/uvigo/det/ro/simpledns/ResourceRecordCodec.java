@@ -0,0 +1,27 @@
+package es.uvigo.det.ro.simpledns;
+
+/**
+ * Builds the typed ResourceRecord for one RR type out of its common fields.
+ * Codecs are registered with
+ * {@link ResourceRecord#registerCodec(RRType, ResourceRecordCodec)}, so new
+ * types can be supported without touching the decoder.
+ *
+ * A codec writing RRData with domain names should return a subclass that
+ * overrides {@link ResourceRecord#encodeRData(MessageEncoder, java.nio.ByteBuffer)}.
+ *
+ * @author Guillermo Barreiro
+ */
+@FunctionalInterface
+public interface ResourceRecordCodec {
+
+    /**
+     * Decodes the RRData of a record
+     *
+     * @param decoded The record with its common fields decoded; its RRData
+     * starts at {@link ResourceRecord#getRDOffset()} in the message
+     * @param names The decoder for the names of the message holding the RR
+     * @return The typed record
+     * @throws Exception in case the RRData cannot be parsed
+     */
+    ResourceRecord decode(ResourceRecord decoded, NameDecoder names) throws Exception;
+}
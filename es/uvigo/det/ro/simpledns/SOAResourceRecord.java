@@ -0,0 +1,93 @@
+package es.uvigo.det.ro.simpledns;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Modela un Resource Record de tipo SOA (RFC 1035, 3.3.13)
+ * @author Guillermo Barreiro
+ *
+ */
+public class SOAResourceRecord extends ResourceRecord {
+
+	private final DomainName mname;
+	private final DomainName rname;
+	private final int serial;
+	private final int refresh;
+	private final int retry;
+	private final int expire;
+	private final int minimum;
+
+	protected SOAResourceRecord(ResourceRecord decoded, final NameDecoder names) throws Exception {
+		super(decoded);
+
+		final byte[] message = names.getMessage();
+		int i = getRDOffset();
+		mname = names.decode(i);
+		i = DomainName.skip(message, i);
+		rname = names.decode(i);
+		i = DomainName.skip(message, i);
+
+		if(i + 20 != getRDOffset() + getRDLength()) { // serial + refresh + retry + expire + minimum
+			throw new Exception("Incorrect rdlength for SOA Resource Records");
+		}
+		serial = Utils.int32fromByteArray(message, i);
+		refresh = Utils.int32fromByteArray(message, i + 4);
+		retry = Utils.int32fromByteArray(message, i + 8);
+		expire = Utils.int32fromByteArray(message, i + 12);
+		minimum = Utils.int32fromByteArray(message, i + 16);
+	}
+
+	/**
+	 * Servidor primario de la zona
+	 */
+	public DomainName getMName() {
+		return mname;
+	}
+
+	/**
+	 * Buzón del responsable de la zona, con la @ cambiada por un punto
+	 */
+	public DomainName getRName() {
+		return rname;
+	}
+
+	public int getSerial() {
+		return serial;
+	}
+
+	public int getRefresh() {
+		return refresh;
+	}
+
+	public int getRetry() {
+		return retry;
+	}
+
+	public int getExpire() {
+		return expire;
+	}
+
+	/**
+	 * Campo MINIMUM: desde RFC 2308, el TTL de las respuestas negativas de la zona
+	 */
+	public int getMinimum() {
+		return minimum;
+	}
+
+	public String getFullAnswer() {
+		return mname + " " + rname + " " + Integer.toUnsignedString(serial) + " " + refresh + " " + retry + " "
+				+ expire + " " + minimum;
+	}
+
+	@Override
+	protected void encodeRData(MessageEncoder encoder, ByteBuffer out) {
+		encoder.writeName(mname, out);
+		encoder.writeName(rname, out);
+		out.putInt(serial);
+		out.putInt(refresh);
+		out.putInt(retry);
+		out.putInt(expire);
+		out.putInt(minimum);
+	}
+
+}
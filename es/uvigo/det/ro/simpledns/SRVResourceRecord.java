@@ -0,0 +1,62 @@
+package es.uvigo.det.ro.simpledns;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Modela un Resource Record de tipo SRV (RFC 2782)
+ * @author Guillermo Barreiro
+ *
+ */
+public class SRVResourceRecord extends ResourceRecord {
+
+	private final int priority;
+	private final int weight;
+	private final int port;
+	private final DomainName target;
+
+	protected SRVResourceRecord(ResourceRecord decoded, final NameDecoder names) throws Exception {
+		super(decoded);
+
+		final byte[] message = names.getMessage();
+		final int i = getRDOffset();
+		if(getRDLength()<7) { // priority + weight + port + al menos la raíz
+			throw new Exception("Incorrect rdlength for SRV Resource Records");
+		}
+		priority = Utils.int16fromByteArray(message, i);
+		weight = Utils.int16fromByteArray(message, i + 2);
+		port = Utils.int16fromByteArray(message, i + 4);
+		target = names.decode(i + 6); // no debería estar comprimido, pero algunos servidores lo comprimen
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	public int getWeight() {
+		return weight;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Máquina que ofrece el servicio
+	 */
+	public DomainName getTarget() {
+		return target;
+	}
+
+	public String getFullAnswer() {
+		return priority + " " + weight + " " + port + " " + target;
+	}
+
+	@Override
+	protected void encodeRData(MessageEncoder encoder, ByteBuffer out) {
+		out.putShort((short) priority);
+		out.putShort((short) weight);
+		out.putShort((short) port);
+		encoder.writeUncompressedName(target, out); // RFC 2782: el destino no se comprime
+	}
+
+}
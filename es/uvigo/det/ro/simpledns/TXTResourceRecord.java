@@ -4,9 +4,9 @@ public class TXTResourceRecord extends ResourceRecord {
 	
 	private String txt;
 
-	protected TXTResourceRecord(ResourceRecord decoded, final byte[] message) {
+	protected TXTResourceRecord(ResourceRecord decoded, final NameDecoder names) {
         super(decoded);
-        this.txt = new String(decoded.getRRData());
+        this.txt = new String(names.getMessage(), getRDOffset(), getRDLength());
     }
 
 	public String getTxt() {
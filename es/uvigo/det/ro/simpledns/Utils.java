@@ -43,13 +43,35 @@ public class Utils {
     }
 
     public static int int16fromByteArray(byte[] val) {
-        return (val[0] << 8) + (val[1] & 0xff);
+        return int16fromByteArray(val, 0);
+    }
+
+    /**
+     * Reads an unsigned 16 bit integer in network order without copying
+     *
+     * @param val the array holding the value
+     * @param offset the position of the most significant byte
+     * @return the value, between 0 and 65535
+     */
+    public static int int16fromByteArray(byte[] val, int offset) {
+        return ((val[offset] & 0xff) << 8) + (val[offset + 1] & 0xff);
     }
 
     public static int int32fromByteArray(byte[] val) {
+        return int32fromByteArray(val, 0);
+    }
+
+    /**
+     * Reads a 32 bit integer in network order without copying
+     *
+     * @param val the array holding the value
+     * @param offset the position of the most significant byte
+     * @return the value
+     */
+    public static int int32fromByteArray(byte[] val, int offset) {
         int value = 0;
 
-        for (int i = 0; i < 4; i++) {
+        for (int i = offset; i < offset + 4; i++) {
             value = (value << 8) + (val[i] & 0xff);
         }
 